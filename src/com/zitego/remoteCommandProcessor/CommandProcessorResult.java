@@ -3,8 +3,11 @@ package com.zitego.remoteCommandProcessor;
 import com.zitego.format.FormatType;
 import com.zitego.format.UnsupportedFormatException;
 import com.zitego.markup.xml.XmlTag;
+import com.zitego.util.StringValidation;
+import java.io.IOException;
 import java.io.StringWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.util.StringTokenizer;
 
 /**
@@ -110,7 +113,95 @@ public class CommandProcessorResult
         return _type + (_reason != null ? ":" + _reason : "") + (_stackTrace != null ? "\r\n" + _stackTrace: "");
     }
 
+    /**
+     * Returns the result as processor-result xml. This builds the whole xml tag tree and the string in
+     * memory, so the servlet that writes results to the response should call serialize(Writer) with the
+     * response writer instead.
+     *
+     * @return String
+     * @throws UnsupportedFormatException if the result cannot be formatted.
+     */
     public String serialize() throws UnsupportedFormatException
+    {
+        return toXml().format(FormatType.XML);
+    }
+
+    /**
+     * Writes the result as processor-result xml to the given writer. The type, reason, and stack trace are
+     * written directly and the details are written by writeDetails, which results with large details can
+     * override to write them without building the xml tag tree in memory first. The writer should be buffered.
+     * This is what the servlet writing the response should call with the response writer; the results in
+     * this package only stream their details when it does, since serialize() and toXml() still build the
+     * full tag tree.
+     *
+     * @param out The writer.
+     * @throws IOException if the writer fails.
+     * @throws UnsupportedFormatException if the details cannot be formatted.
+     */
+    public void serialize(Writer out) throws IOException, UnsupportedFormatException
+    {
+        out.write( "<processor-result class=\"" + escapeXml(getClass().getName()) + "\">" );
+        out.write( "<type>" + _type + "</type>" );
+        out.write( "<reason>" + (_reason != null ? escapeXml(_reason) : "") + "</reason>" );
+        out.write( "<stack-trace>" + (_stackTrace != null ? escapeXml(_stackTrace) : "") + "</stack-trace>" );
+        writeDetails(out);
+        out.write("</processor-result>");
+        out.flush();
+    }
+
+    /**
+     * Writes the details of the result to the given writer. By default this formats the tag returned
+     * from getDetails.
+     *
+     * @param out The writer.
+     * @throws IOException if the writer fails.
+     * @throws UnsupportedFormatException if the details cannot be formatted.
+     */
+    protected void writeDetails(Writer out) throws IOException, UnsupportedFormatException
+    {
+        XmlTag details = getDetails();
+        if (details != null) out.write( details.format(FormatType.XML) );
+    }
+
+    /**
+     * Escapes the xml special characters in the given text so it can be written as body content or an
+     * attribute value.
+     *
+     * @param text The text.
+     * @return String
+     */
+    protected static String escapeXml(String text)
+    {
+        if (text == null) return null;
+        StringBuffer ret = null;
+        int len = text.length();
+        for (int i=0; i<len; i++)
+        {
+            char c = text.charAt(i);
+            String entity = null;
+            if (c == '&') entity = "&amp;";
+            else if (c == '<') entity = "&lt;";
+            else if (c == '>') entity = "&gt;";
+            else if (c == '"') entity = "&quot;";
+            if (entity != null)
+            {
+                if (ret == null) ret = new StringBuffer(len + 16).append(text, 0, i);
+                ret.append(entity);
+            }
+            else if (ret != null)
+            {
+                ret.append(c);
+            }
+        }
+        return (ret != null ? ret.toString() : text);
+    }
+
+    /**
+     * Returns the result as a processor-result xml tag.
+     *
+     * @return XmlTag
+     */
+    public XmlTag toXml()
     {
         XmlTag ret = new XmlTag("processor-result");
         ret.setAttribute( "class", getClass().getName() );
@@ -127,7 +218,47 @@ public class CommandProcessorResult
             ret.addBodyContent(details);
         }
 
-        return ret.format(FormatType.XML);
+        return ret;
+    }
+
+    /**
+     * Creates a result from a processor-result xml tag. The class attribute determines the type
+     * of result that is created and the result's deserialize method is called to read any details.
+     *
+     * @param tag The processor-result tag.
+     * @return CommandProcessorResult
+     * @throws UnsupportedFormatException if the tag is not a valid processor-result.
+     */
+    public static CommandProcessorResult createResult(XmlTag tag) throws UnsupportedFormatException
+    {
+        if ( tag == null || !"processor-result".equalsIgnoreCase(tag.getTagName()) ) throw new UnsupportedFormatException("No processor-result parent tag found");
+        String className = tag.getTagAttribute("class");
+        if (className == null) throw new UnsupportedFormatException("No processor-result class attribute found");
+        CommandProcessorResult ret = null;
+        try
+        {
+            ret = (CommandProcessorResult)Class.forName(className).newInstance();
+        }
+        catch (Exception e)
+        {
+            throw new UnsupportedFormatException("Could not create processor-result class " + className + ": " + e.toString() );
+        }
+        String type = tag.getChildValue("type");
+        if (type == null) throw new UnsupportedFormatException("No processor-result type tag found");
+        try
+        {
+            ret.setType( Integer.parseInt(type) );
+        }
+        catch (NumberFormatException nfe)
+        {
+            throw new UnsupportedFormatException("Invalid processor-result type: " + type);
+        }
+        String reason = tag.getChildValue("reason");
+        if ( StringValidation.isNotEmpty(reason) ) ret.setReason(reason);
+        String stackTrace = tag.getChildValue("stack-trace");
+        if ( StringValidation.isNotEmpty(stackTrace) ) ret.setStackTrace(stackTrace);
+        ret.deserialize(tag);
+        return ret;
     }
 
     public void deserialize(XmlTag tag) { }
@@ -9,15 +9,17 @@ import com.zitego.web.util.StaticWebappProperties;
 import com.zitego.markup.xml.XmlTag;
 import com.zitego.util.TimeoutException;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.FileWriter;
 import java.io.PrintWriter;
-import java.io.BufferedWriter;
 import java.io.InputStreamReader;
 import java.io.BufferedReader;
 import java.io.StringReader;
+import java.io.StringWriter;
 import java.io.FileReader;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 
 /**
  * <p>This class handles editing a virtual host entry in the apache config file. The
@@ -44,6 +46,7 @@ import java.util.Vector;
  *   <KeepAlive>On</KeepAlive>
  *  </virtual_host>
  *  ...
+ *  <wait_for_restart>false</wait_for_restart> (default is true)
  * </processor-arguments>
  * </xmp>
  *
@@ -52,6 +55,28 @@ import java.util.Vector;
  * webapp properties. The lock file is used to insure that only one process at a time can
  * change the configuration file.</p>
  *
+ * <p>Edits are made through a VirtualHostConfigFile, which keeps an index of where each website's
+ * section is in the config file and rewrites it by copying the unchanged parts into a temporary file
+ * that is renamed over the config file. Editors of the same file in this process queue their sections,
+ * and the first one holds the lock file and writes every queued section in one rewrite while the
+ * others wait.</p>
+ *
+ * <p>Apache is restarted through a RestartScheduler so that a burst of edits is followed by one
+ * restart. A restart waits until no edit has asked for one for vhost_editor.restart_window
+ * milliseconds (2000 by default). If vhost_editor.apache_reload_script is set, it is run instead of
+ * the restart script, so a graceful reload can be used. The result waits for the restart and fails
+ * if the restart fails unless wait_for_restart is false, in which case it returns once the config
+ * file is written. The restart does not hold the lock file since the config file is only ever
+ * replaced whole.</p>
+ *
+ * <p>If vhost_editor.sites_dir is set, each website is written to its own file named
+ * website_[website_id].conf in that directory instead of a section of the config file. The site file
+ * is written to a temporary file that is renamed over it while holding a lock file for just that
+ * website, so edits of different websites do not wait on each other. The config file is only
+ * changed, under the lock file, when it does not yet have the Include line for the site files or
+ * still has a section for the website from before, which is removed. Apache reads the included site
+ * files in name order.</p>
+ *
  * @author John Glorioso
  * @version $Id: ApacheVirtualHostEditor.java,v 1.6 2013/09/01 12:22:52 jglorioso Exp $
  */
@@ -60,6 +85,10 @@ public class ApacheVirtualHostEditor extends CommandProcessor
     private File _configFile;
     private File _lockFile;
     private String _restartScript;
+    private String _reloadScript;
+    private long _restartWindow = 2000;
+    private boolean _waitForRestart = true;
+    private File _sitesDir;
     private String _websiteId;
     private Vector _virtualHosts = new Vector();
 
@@ -89,9 +118,11 @@ public class ApacheVirtualHostEditor extends CommandProcessor
      * Creates a new apache config editor. It sets the config file, lock file, and apache
      * restart script. If vhost_editor.config_file, vhost_editor.lock_file, and
      * vhost_editor.apache_restart_script do not exist in the webapp properties, then an
-     * exception is thrown.
+     * exception is thrown. The optional vhost_editor.apache_reload_script and
+     * vhost_editor.restart_window are read as well, along with vhost_editor.sites_dir, which is
+     * created if it does not exist.
      *
-     * @throws IllegalStateException if any required properties are missing.
+     * @throws IllegalStateException if any required properties are missing or invalid.
      */
     public ApacheVirtualHostEditor() throws IllegalStateException
     {
@@ -105,12 +136,38 @@ public class ApacheVirtualHostEditor extends CommandProcessor
         _lockFile = new File(prop);
         _restartScript = (String)props.getProperty("vhost_editor.apache_restart_script");
         if (_restartScript == null) throw new IllegalStateException("chost_editor.apache_restart_script not set");
+        _reloadScript = (String)props.getProperty("vhost_editor.apache_reload_script");
+        if ( "".equals(_reloadScript) ) _reloadScript = null;
+        prop = (String)props.getProperty("vhost_editor.restart_window");
+        if (prop != null)
+        {
+            try
+            {
+                _restartWindow = Long.parseLong(prop);
+            }
+            catch (NumberFormatException nfe)
+            {
+                throw new IllegalStateException("Invalid vhost_editor.restart_window: "+prop);
+            }
+        }
+        prop = (String)props.getProperty("vhost_editor.sites_dir");
+        if (prop != null && !"".equals(prop) )
+        {
+            _sitesDir = new File(prop);
+            if ( !_sitesDir.isDirectory() && !_sitesDir.mkdirs() ) throw new IllegalStateException("Could not create vhost_editor.sites_dir: "+prop);
+        }
     }
 
     public void init(ProcessorArguments args) throws CommandProcessorException
     {
         _websiteId = args.getFirstOccurrenceOf("website_id").getValue();
         if (_websiteId == null) throw new CommandProcessorException("website_id not set");
+        if ( _sitesDir != null && !_websiteId.matches("[A-Za-z0-9_\\-]+") )
+        {
+            throw new CommandProcessorException("website_id cannot be used in a site file name: "+_websiteId);
+        }
+        String val = args.getChildValue("wait_for_restart");
+        if (val != null) _waitForRestart = new Boolean(val).booleanValue();
 
         Vector hosts = args.getChildrenWithName("virtual_host");
         int size = hosts.size();
@@ -149,10 +206,10 @@ public class ApacheVirtualHostEditor extends CommandProcessor
         CommandProcessorResult ret = null;
         try
         {
-            createLockFile(_lockFile, _websiteId);
             if ( !_configFile.exists() ) throw new IOException("apache config file: "+_configFile+" does not exist");
-            writeConfigFile();
-            restartApache();
+            if (_sitesDir != null) writeSiteFile();
+            else writeConfigFile();
+            scheduleRestart();
             ret = new CommandProcessorResult(CommandProcessorResult.SUCCESS);
         }
         catch (Exception e)
@@ -162,56 +219,128 @@ public class ApacheVirtualHostEditor extends CommandProcessor
             ret.setReason( e.toString() );
             ret.setStackTrace(e);
         }
-        finally
-        {
-            if (_lockFile != null) _lockFile.delete();
-        }
         return ret;
     }
 
     /**
-     * Reads through the config file and looks for a section to edit for the website. If it finds one, it
-     * erases it. It then appends the new virtual host configuration to the end.
+     * Queues the virtual host configuration to replace the website's section of the config file and waits
+     * for it to be written. If no other editor is writing the config file, this one obtains the lock file
+     * and writes everything queued until the queue is empty.
      *
      * @throws IOException if an error occurs.
+     * @throws InterruptedException if interrupted while waiting for the edit to be written.
      */
-    protected void writeConfigFile() throws IOException
+    protected void writeConfigFile() throws IOException, InterruptedException
     {
-        Vector contents = new Vector();
-        BufferedReader in = new BufferedReader( new FileReader(_configFile) );
-        String line = null;
-        boolean foundBegin = false;
-        boolean foundEnd = false;
-        //Erase contents and append to end
-        while ( (line=in.readLine()) != null )
+        VirtualHostConfigFile config = VirtualHostConfigFile.getInstance(_configFile);
+        editConfigFile( config, config.submit(_websiteId, createConfigBlock()) );
+    }
+
+    /**
+     * Writes the virtual host configuration to the website's own file in the sites directory. If the config
+     * file still has a section for the website, it is removed first so that a restart in between never loads
+     * the website twice (duplicate LISTEN lines keep apache from starting). Then, if the config file does not
+     * include the site files, the Include line is added. Both are edited like in writeConfigFile.
+     *
+     * @throws IOException if an error occurs.
+     * @throws TimeoutException if the website's lock file cannot be obtained.
+     * @throws InterruptedException if interrupted while waiting for a lock or an edit.
+     */
+    protected void writeSiteFile() throws IOException, TimeoutException, InterruptedException
+    {
+        VirtualHostConfigFile config = VirtualHostConfigFile.getInstance(_configFile);
+        if ( config.hasBlock(_websiteId) ) editConfigFile( config, config.submit(_websiteId, null) );
+
+        File lockFile = new File(_sitesDir, "website_"+_websiteId+".lck");
+        createLockFile(lockFile, _websiteId);
+        try
         {
-            if ( line.equals("") ) continue;
-            //Check for begin
-            if (line.indexOf("# BEGIN website:"+_websiteId+" config") == 0) foundBegin = true;
-            if (foundBegin && !foundEnd)
+            File file = new File(_sitesDir, "website_"+_websiteId+".conf");
+            File tmp = new File(_sitesDir, "website_"+_websiteId+".conf.tmp");
+            FileOutputStream out = new FileOutputStream(tmp);
+            try
+            {
+                out.write( createConfigBlock().getBytes() );
+                out.getFD().sync();
+            }
+            finally
             {
-                //Check for end
-                if (line.indexOf("# END website:"+_websiteId+" config") == 0) foundEnd = true;
+                out.close();
             }
-            else
+            if ( !tmp.renameTo(file) )
             {
-                contents.add(line);
+                file.delete();
+                if ( !tmp.renameTo(file) ) throw new IOException("Could not rename "+tmp+" to "+file);
             }
         }
-        in.close();
-        if (foundBegin && !foundEnd) throw new RuntimeException("Config file error. BEGIN tag found for website: "+_websiteId+", but no END tag found");
-        //Write out the file and append the new stuff on the end
-        PrintWriter out = new PrintWriter( new BufferedWriter(new FileWriter(_configFile, false)) );
-        int size = contents.size();
-        for (int i=0; i<size; i++)
+        finally
         {
-            line = (String)contents.get(i);
-            if ( line.startsWith("# BEGIN") ) out.println("");
-            out.println( contents.get(i) );
+            lockFile.delete();
         }
+
+        String include = "Include " + _sitesDir.getAbsolutePath() + "/website_*.conf";
+        if ( !config.hasInclude(include) ) editConfigFile( config, config.submitInclude(include) );
+    }
+
+    /**
+     * Waits for the given edit of the config file to be written. If no other editor is writing the config
+     * file, this one obtains the lock file and writes everything queued until the queue is empty.
+     *
+     * @param config The config file.
+     * @param edit The edit.
+     * @throws IOException if the edit could not be written.
+     * @throws InterruptedException if interrupted while waiting for the edit to be written.
+     */
+    private void editConfigFile(VirtualHostConfigFile config, VirtualHostConfigFile.Edit edit) throws IOException, InterruptedException
+    {
+        if ( config.lead() )
+        {
+            while ( config.hasEdits() )
+            {
+                Exception error = null;
+                boolean locked = false;
+                try
+                {
+                    createLockFile(_lockFile, _websiteId);
+                    locked = true;
+                }
+                catch (Exception e)
+                {
+                    error = e;
+                }
+                //Take everything queued while waiting on the lock
+                List<VirtualHostConfigFile.Edit> edits = config.takeEdits();
+                try
+                {
+                    if (error == null) config.write(edits);
+                }
+                catch (Exception e)
+                {
+                    error = e;
+                }
+                finally
+                {
+                    if (locked) _lockFile.delete();
+                    config.complete(edits, error);
+                }
+            }
+        }
+        edit.waitFor();
+    }
+
+    /**
+     * Returns the website's section of the config file preceded by a blank line.
+     *
+     * @return String
+     * @throws IOException if an error occurs.
+     */
+    protected String createConfigBlock() throws IOException
+    {
+        StringWriter ret = new StringWriter();
+        PrintWriter out = new PrintWriter(ret);
         out.println("");
         out.println("# BEGIN website:"+_websiteId+" config");
-        size = _virtualHosts.size();
+        int size = _virtualHosts.size();
         for (int i=0; i<size; i++)
         {
             if (i > 0) out.println("");
@@ -232,7 +361,7 @@ public class ApacheVirtualHostEditor extends CommandProcessor
         }
         out.println("# END website:"+_websiteId+" config");
         out.flush();
-        out.close();
+        return ret.toString();
     }
 
     private void printConfig(PrintWriter out, XmlTag config, String indent) throws IOException
@@ -255,7 +384,40 @@ public class ApacheVirtualHostEditor extends CommandProcessor
     }
 
     /**
-     * Restarts the apache webserver.
+     * Asks the restart scheduler to restart apache along with any other edits made within the restart
+     * window and, if wait_for_restart is true, waits for the restart to finish.
+     *
+     * @throws IOException if the restart fails.
+     * @throws InterruptedException if interrupted while waiting for the restart.
+     */
+    protected void scheduleRestart() throws IOException, InterruptedException
+    {
+        RestartScheduler.Restart restart = RestartScheduler.getInstance(getRestartCommand(), _restartWindow).request
+        (
+            new Callable<Object>()
+            {
+                public Object call() throws Exception
+                {
+                    restartApache();
+                    return null;
+                }
+            }
+        );
+        if (_waitForRestart) restart.waitFor();
+    }
+
+    /**
+     * Returns the reload script if there is one, otherwise the restart script.
+     *
+     * @return String
+     */
+    protected String getRestartCommand()
+    {
+        return (_reloadScript != null ? _reloadScript : _restartScript);
+    }
+
+    /**
+     * Restarts the apache webserver with the restart command.
      *
      * @throws IOException if an error occurs.
      * @throws InterruptedException if an error occurs while waiting for the script to complete.
@@ -263,7 +425,7 @@ public class ApacheVirtualHostEditor extends CommandProcessor
     protected void restartApache() throws IOException, InterruptedException
     {
         if (_restartScript == null) throw new IOException("website.apache.restart is not set in webapp properties");
-        Process p = Runtime.getRuntime().exec(_restartScript);
+        Process p = Runtime.getRuntime().exec( getRestartCommand() );
         p.waitFor();
         if ( p.exitValue() != 0) throw new IOException( getProcessError(p) );
     }
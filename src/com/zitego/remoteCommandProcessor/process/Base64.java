@@ -0,0 +1,109 @@
+package com.zitego.remoteCommandProcessor.process;
+
+/**
+ * A minimal base64 encoder and decoder used to carry binary data inside processor arguments and results.
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+class Base64
+{
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int[] VALUES = new int[128];
+    static
+    {
+        java.util.Arrays.fill(VALUES, -1);
+        for (int i=0; i<ALPHABET.length; i++)
+        {
+            VALUES[ALPHABET[i]] = i;
+        }
+    }
+
+    private Base64() { }
+
+    /**
+     * Encodes the given bytes.
+     *
+     * @param data The data.
+     * @param offset The offset into the data.
+     * @param length The number of bytes to encode.
+     * @return String
+     */
+    static String encode(byte[] data, int offset, int length)
+    {
+        char[] ret = new char[(length + 2) / 3 * 4];
+        int end = offset + length;
+        int j = 0;
+        for (int i=offset; i<end; i+=3)
+        {
+            int b = (data[i] & 0xff) << 16;
+            if (i+1 < end) b |= (data[i+1] & 0xff) << 8;
+            if (i+2 < end) b |= (data[i+2] & 0xff);
+            ret[j++] = ALPHABET[(b >> 18) & 0x3f];
+            ret[j++] = ALPHABET[(b >> 12) & 0x3f];
+            ret[j++] = (i+1 < end ? ALPHABET[(b >> 6) & 0x3f] : '=');
+            ret[j++] = (i+2 < end ? ALPHABET[b & 0x3f] : '=');
+        }
+        return new String(ret);
+    }
+
+    /**
+     * Encodes the given bytes.
+     *
+     * @param data The data.
+     * @return String
+     */
+    static String encode(byte[] data)
+    {
+        return encode(data, 0, data.length);
+    }
+
+    /**
+     * Decodes the given string. Whitespace is ignored.
+     *
+     * @param str The base64 string.
+     * @return byte[]
+     * @throws IllegalArgumentException if the string is not valid base64.
+     */
+    static byte[] decode(String str) throws IllegalArgumentException
+    {
+        if (str == null) return new byte[0];
+        byte[] buf = new byte[str.length() * 3 / 4 + 3];
+        int len = 0;
+        int bits = 0;
+        int count = 0;
+        for (int i=0; i<str.length(); i++)
+        {
+            char c = str.charAt(i);
+            if (c == '=') break;
+            if ( Character.isWhitespace(c) ) continue;
+            int val = (c < 128 ? VALUES[c] : -1);
+            if (val == -1) throw new IllegalArgumentException("Invalid base64 character: "+c);
+            bits = (bits << 6) | val;
+            if (++count == 4)
+            {
+                buf[len++] = (byte)(bits >> 16);
+                buf[len++] = (byte)(bits >> 8);
+                buf[len++] = (byte)bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 2)
+        {
+            buf[len++] = (byte)(bits >> 4);
+        }
+        else if (count == 3)
+        {
+            buf[len++] = (byte)(bits >> 10);
+            buf[len++] = (byte)(bits >> 2);
+        }
+        else if (count == 1)
+        {
+            throw new IllegalArgumentException("Invalid base64 length");
+        }
+        byte[] ret = new byte[len];
+        System.arraycopy(buf, 0, ret, 0, len);
+        return ret;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,239 @@
+package com.zitego.remoteCommandProcessor.process;
+
+import com.zitego.remoteCommandProcessor.CommandProcessor;
+import com.zitego.remoteCommandProcessor.CommandProcessorDocument;
+import com.zitego.remoteCommandProcessor.ProcessorArguments;
+import com.zitego.remoteCommandProcessor.CommandProcessorResult;
+import com.zitego.remoteCommandProcessor.CommandProcessorException;
+import com.zitego.markup.xml.XmlTag;
+import com.zitego.format.FormatType;
+import java.util.Vector;
+
+/**
+ * This class handles executing several command processors in a single request. The processor arguments
+ * should contain a command-processor-batch entity holding one command-processor entity per command. The
+ * commands are executed in order. By default the batch stops at the first command that fails. If the
+ * stop_on_failure attribute is false, every command is executed regardless. The username and password
+ * of the batch document authorize every command in it, so they are not needed on the inner documents.
+ * The xml should look as follows:<br>
+ * <xmp>
+ * <processor-arguments>
+ *  <command-processor-batch stop_on_failure="true">
+ *   <command-processor>
+ *    <type>com.zitego.remoteCommandProcessor.process.DirectoryCreator</type>
+ *    <processor-arguments>
+ *     <directory>/home/httpd/domains/example.com</directory>
+ *    </processor-arguments>
+ *   </command-processor>
+ *   <command-processor>
+ *    <type>com.zitego.remoteCommandProcessor.process.FileWriter</type>
+ *    <processor-arguments>
+ *     ...
+ *    </processor-arguments>
+ *   </command-processor>
+ *   ...
+ *  </command-processor-batch>
+ * </processor-arguments>
+ * </xmp>
+ *
+ * Each command is created and initialized right before it is executed, so a command can rely on what the
+ * commands before it did (ie: copying files into a directory created earlier in the batch). A command that
+ * cannot be initialized is reported as a failure in its place in the results. The result is a
+ * BatchProcessorResult containing the result of each command that was executed.
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+public class BatchProcessor extends CommandProcessor
+{
+    private boolean _stopOnFailure = true;
+    private Vector<CommandProcessorDocument> _documents = new Vector<CommandProcessorDocument>();
+    private Vector<Command> _commands = new Vector<Command>();
+
+    /**
+     * Creates a new batch processor.
+     */
+    public BatchProcessor()
+    {
+        super();
+    }
+
+    /**
+     * Sets whether to stop executing commands after the first one fails. The default is true.
+     *
+     * @param stop Whether to stop on failure.
+     */
+    public void setStopOnFailure(boolean stop)
+    {
+        _stopOnFailure = stop;
+    }
+
+    /**
+     * Returns whether to stop executing commands after the first one fails.
+     *
+     * @return boolean
+     */
+    public boolean getStopOnFailure()
+    {
+        return _stopOnFailure;
+    }
+
+    /**
+     * Adds a command processor to the batch to be sent remotely.
+     *
+     * @param processor The command processor.
+     */
+    public void addProcessor(CommandProcessor processor)
+    {
+        if (processor != null) addDocument( processor.createDocument() );
+    }
+
+    /**
+     * Adds a command processor document to the batch to be sent remotely.
+     *
+     * @param doc The document.
+     */
+    public void addDocument(CommandProcessorDocument doc)
+    {
+        if (doc != null) _documents.add(doc);
+    }
+
+    /**
+     * The processor arguments should contain a command-processor-batch argument with one or more
+     * command-processor entities. Only the xml of each command is parsed and its type checked here. If
+     * stop on failure is set, any command that is invalid fails the whole batch before anything is
+     * executed. Otherwise, the command is reported as a failure in its place in the results.
+     *
+     * @param args The processor arguments.
+     */
+    public void init(ProcessorArguments args) throws CommandProcessorException
+    {
+        XmlTag batch = args.getFirstOccurrenceOf("command-processor-batch");
+        if (batch == null) throw new CommandProcessorException("<command-processor-batch> is required");
+        String val = batch.getTagAttribute("stop_on_failure");
+        if (val != null) _stopOnFailure = new Boolean(val).booleanValue();
+
+        Vector commands = batch.getChildrenWithName("command-processor");
+        int size = commands.size();
+        if (size == 0) throw new CommandProcessorException("At least one <command-processor> is required in the batch");
+        for (int i=0; i<size; i++)
+        {
+            XmlTag command = (XmlTag)commands.get(i);
+            String type = command.getChildValue("type");
+            Command cmd = new Command(i+1, type);
+            try
+            {
+                if (type == null) throw new CommandProcessorException("<type> is required for command "+(i+1));
+                Class c = Class.forName(type);
+                if ( !CommandProcessor.class.isAssignableFrom(c) ) throw new CommandProcessorException(type+" is not a command processor");
+                cmd.processorClass = c;
+                cmd.args = new ProcessorArguments();
+                XmlTag tag = command.getFirstOccurrenceOf("processor-arguments");
+                if (tag != null) cmd.args.parse(tag.format(FormatType.XML), FormatType.XML);
+            }
+            catch (Exception e)
+            {
+                if (_stopOnFailure) throw new CommandProcessorException("Could not initialize command "+(i+1)+": "+type, e);
+                cmd.error = createInitError(cmd, e);
+            }
+            _commands.add(cmd);
+        }
+    }
+
+    public CommandProcessorResult execute()
+    {
+        BatchProcessorResult ret = new BatchProcessorResult();
+        int size = _commands.size();
+        int failures = 0;
+        for (int i=0; i<size; i++)
+        {
+            Command cmd = _commands.get(i);
+            CommandProcessorResult result = cmd.error;
+            CommandProcessor processor = null;
+            if (result == null)
+            {
+                try
+                {
+                    processor = (CommandProcessor)cmd.processorClass.newInstance();
+                    processor.init(cmd.args);
+                }
+                catch (Exception e)
+                {
+                    result = createInitError(cmd, e);
+                }
+            }
+            if (result == null)
+            {
+                try
+                {
+                    result = processor.execute();
+                }
+                catch (RuntimeException re)
+                {
+                    result = new CommandProcessorResult(CommandProcessorResult.FAILURE);
+                    result.setReason( re.toString() );
+                    result.setStackTrace(re);
+                }
+            }
+            ret.addResult(result);
+            if (result.getType() != CommandProcessorResult.SUCCESS)
+            {
+                failures++;
+                if (_stopOnFailure)
+                {
+                    ret.setType(CommandProcessorResult.FAILURE);
+                    ret.setReason( "Stopped after command "+(i+1)+" of "+size+" failed: "+result.getReason() );
+                    return ret;
+                }
+            }
+        }
+        if (failures > 0)
+        {
+            ret.setType(CommandProcessorResult.FAILURE);
+            ret.setReason(failures+" of "+size+" commands failed");
+        }
+        return ret;
+    }
+
+    private CommandProcessorResult createInitError(Command cmd, Exception e)
+    {
+        CommandProcessorResult ret = new CommandProcessorResult(CommandProcessorResult.FAILURE);
+        ret.setReason( "Could not initialize command "+cmd.number+": "+cmd.type+": "+e.getMessage() );
+        ret.setStackTrace(e);
+        return ret;
+    }
+
+    public CommandProcessorDocument createDocument()
+    {
+        CommandProcessorDocument doc = super.createDocument();
+        ProcessorArguments args = doc.getProcessorArguments();
+        XmlTag batch = new XmlTag("command-processor-batch", args);
+        batch.setAttribute( "stop_on_failure", String.valueOf(_stopOnFailure) );
+        int size = _documents.size();
+        for (int i=0; i<size; i++)
+        {
+            CommandProcessorDocument command = _documents.get(i);
+            command.setParent(batch);
+            batch.addBodyContent(command);
+        }
+        return doc;
+    }
+
+    /**
+     * A command in the batch waiting to be created and executed.
+     */
+    private static class Command
+    {
+        private int number;
+        private String type;
+        private Class processorClass;
+        private ProcessorArguments args;
+        private CommandProcessorResult error;
+
+        private Command(int number, String type)
+        {
+            this.number = number;
+            this.type = type;
+        }
+    }
+}
\ No newline at end of file
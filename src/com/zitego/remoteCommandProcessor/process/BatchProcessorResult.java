@@ -0,0 +1,114 @@
+package com.zitego.remoteCommandProcessor.process;
+
+import com.zitego.remoteCommandProcessor.CommandProcessorResult;
+import com.zitego.markup.xml.XmlTag;
+import com.zitego.format.UnsupportedFormatException;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Vector;
+
+/**
+ * An extension of the command processor result to contain the result of each command in a batch.
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+public class BatchProcessorResult extends CommandProcessorResult
+{
+    private Vector<CommandProcessorResult> _results = new Vector<CommandProcessorResult>();
+
+    /**
+     * Creates a new BatchProcessor result.
+     */
+    public BatchProcessorResult()
+    {
+        super(SUCCESS);
+    }
+
+    /**
+     * Creates a new BatchProcessor result given the result type.
+     */
+    public BatchProcessorResult(int type)
+    {
+        this();
+        setType(type);
+    }
+
+    /**
+     * Adds the result of the next command in the batch.
+     *
+     * @param result The result.
+     */
+    public void addResult(CommandProcessorResult result)
+    {
+        if (result != null) _results.add(result);
+    }
+
+    /**
+     * Returns the results in the order the commands were executed. Commands that were not executed
+     * because an earlier command failed have no result.
+     *
+     * @return Vector<CommandProcessorResult>
+     */
+    public Vector<CommandProcessorResult> getResults()
+    {
+        return _results;
+    }
+
+    protected XmlTag getDetails()
+    {
+        XmlTag ret = new XmlTag("batch-results");
+        int size = _results.size();
+        for (int i=0; i<size; i++)
+        {
+            XmlTag result = _results.get(i).toXml();
+            result.setParent(ret);
+            ret.addBodyContent(result);
+        }
+        return ret;
+    }
+
+    /**
+     * Writes each command's result with its own serialize(Writer) so that results that stream their
+     * details, such as large directory listings, are not built as xml tags first.
+     *
+     * @param out The writer.
+     * @throws IOException if the writer fails.
+     * @throws UnsupportedFormatException if a result cannot be formatted.
+     */
+    protected void writeDetails(Writer out) throws IOException, UnsupportedFormatException
+    {
+        out.write("<batch-results>");
+        int size = _results.size();
+        for (int i=0; i<size; i++)
+        {
+            _results.get(i).serialize(out);
+        }
+        out.write("</batch-results>");
+    }
+
+    public void deserialize(XmlTag tag)
+    {
+        if (tag == null) return;
+
+        XmlTag results = tag.getFirstOccurrenceOf("batch-results");
+        if (results != null)
+        {
+            Vector<XmlTag> children = (Vector<XmlTag>)results.getChildrenWithName("processor-result");
+            int size = children.size();
+            for (int i=0; i<size; i++)
+            {
+                try
+                {
+                    addResult( CommandProcessorResult.createResult(children.get(i)) );
+                }
+                catch (UnsupportedFormatException ufe)
+                {
+                    CommandProcessorResult err = new CommandProcessorResult(FAILURE);
+                    err.setReason( "Could not read result "+(i+1)+": "+ufe.getMessage() );
+                    addResult(err);
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,153 @@
+package com.zitego.remoteCommandProcessor.process;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encodes the files of a directory listing in a compact columnar form. All of the names are written first,
+ * then all of the last modified times, then all of the sizes, which groups similar values together so the
+ * optional gzip pass compresses them well. The layout is:
+ * <xmp>
+ * count          varint
+ * names          for each file: varint prefix length shared with the previous name (in chars),
+ *                varint suffix length (in bytes), utf-8 suffix
+ * last modified  for each file: zigzag varint difference from the previous file's time
+ * sizes          for each file: varint
+ * </xmp>
+ * The result is base64 encoded so it can be carried as the body of the files tag.
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+class CompactListing
+{
+    private CompactListing() { }
+
+    /**
+     * Encodes the given files.
+     *
+     * @param files The files.
+     * @param gzip Whether to gzip the encoded data.
+     * @return String
+     * @throws IOException if the data cannot be encoded.
+     */
+    static String encode(FileListerResult.Listing files, boolean gzip) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = (gzip ? new GZIPOutputStream(bytes) : (OutputStream)bytes);
+        int size = files.size();
+        writeVarint(out, size);
+        String previous = "";
+        for (int i=0; i<size; i++)
+        {
+            String name = files.getPath(i);
+            int prefix = 0;
+            int max = Math.min( name.length(), previous.length() );
+            while (prefix < max && name.charAt(prefix) == previous.charAt(prefix))
+            {
+                prefix++;
+            }
+            //Never split a surrogate pair between the prefix and the suffix
+            if ( prefix > 0 && prefix < name.length() && Character.isLowSurrogate(name.charAt(prefix)) ) prefix--;
+            byte[] suffix = name.substring(prefix).getBytes("UTF-8");
+            writeVarint(out, prefix);
+            writeVarint(out, suffix.length);
+            out.write(suffix);
+            previous = name;
+        }
+        long last = 0;
+        for (int i=0; i<size; i++)
+        {
+            long time = files.getLastModified(i);
+            long delta = time - last;
+            writeVarint( out, (delta << 1) ^ (delta >> 63) );
+            last = time;
+        }
+        for (int i=0; i<size; i++)
+        {
+            writeVarint(out, files.getSize(i) );
+        }
+        out.close();
+        return Base64.encode( bytes.toByteArray() );
+    }
+
+    /**
+     * Decodes the given data and adds the files to the result.
+     *
+     * @param data The encoded data.
+     * @param gzip Whether the data was gzipped.
+     * @param result The result to add the files to.
+     * @param dir The directory the files belong to.
+     * @throws IOException if the data is not valid.
+     */
+    static void decode(String data, boolean gzip, FileListerResult result, String dir) throws IOException
+    {
+        InputStream in = new ByteArrayInputStream( Base64.decode(data) );
+        if (gzip) in = new GZIPInputStream(in);
+        int size = (int)readVarint(in);
+        String[] names = new String[size];
+        String previous = "";
+        for (int i=0; i<size; i++)
+        {
+            int prefix = (int)readVarint(in);
+            byte[] suffix = new byte[(int)readVarint(in)];
+            readFully(in, suffix);
+            if ( prefix > previous.length() ) throw new IOException("Invalid name prefix length: "+prefix);
+            names[i] = previous.substring(0, prefix) + new String(suffix, "UTF-8");
+            previous = names[i];
+        }
+        long[] times = new long[size];
+        long last = 0;
+        for (int i=0; i<size; i++)
+        {
+            long zigzag = readVarint(in);
+            last += (zigzag >>> 1) ^ -(zigzag & 1);
+            times[i] = last;
+        }
+        for (int i=0; i<size; i++)
+        {
+            result.addResult( dir, names[i], times[i], readVarint(in) );
+        }
+        in.close();
+    }
+
+    private static void writeVarint(OutputStream out, long value) throws IOException
+    {
+        while ( (value & ~0x7fL) != 0 )
+        {
+            out.write( (int)((value & 0x7f) | 0x80) );
+            value >>>= 7;
+        }
+        out.write( (int)value );
+    }
+
+    private static long readVarint(InputStream in) throws IOException
+    {
+        long ret = 0;
+        for (int shift=0; shift<64; shift+=7)
+        {
+            int b = in.read();
+            if (b == -1) throw new EOFException("Unexpected end of compact listing");
+            ret |= (long)(b & 0x7f) << shift;
+            if ( (b & 0x80) == 0 ) return ret;
+        }
+        throw new IOException("Invalid varint in compact listing");
+    }
+
+    private static void readFully(InputStream in, byte[] buf) throws IOException
+    {
+        int off = 0;
+        while (off < buf.length)
+        {
+            int read = in.read(buf, off, buf.length - off);
+            if (read == -1) throw new EOFException("Unexpected end of compact listing");
+            off += read;
+        }
+    }
+}
\ No newline at end of file
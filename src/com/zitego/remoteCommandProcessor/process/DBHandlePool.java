@@ -0,0 +1,314 @@
+package com.zitego.remoteCommandProcessor.process;
+
+import com.zitego.sql.DBConfig;
+import com.zitego.sql.DBHandle;
+import com.zitego.sql.DBHandleFactory;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * This class keeps connected database handles for reuse so that processors which load data into a site's
+ * database do not open a new connection every time they run. Handles are pooled by a key that identifies
+ * the database and user (ie: host, site id, and username). A pooled handle is checked with a simple query
+ * before it is handed out and is discarded if the query fails. Handles that have sat idle longer than the
+ * idle timeout are disconnected when the pool is next used.
+ *
+ * The default pool can be tuned with the following system properties:
+ * <ul>
+ *  <li>rcp.db.max_idle_per_key - The maximum idle handles kept per key. The default is 4.
+ *  <li>rcp.db.idle_timeout - The idle time in milliseconds before a handle is evicted. The default is 300000.
+ * </ul>
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+public class DBHandlePool
+{
+    private static DBHandlePool _default = new DBHandlePool
+    (
+        Integer.getInteger("rcp.db.max_idle_per_key", 4).intValue(),
+        Long.getLong("rcp.db.idle_timeout", 300000L).longValue()
+    );
+    private Hashtable<String, LinkedList<IdleHandle>> _idle = new Hashtable<String, LinkedList<IdleHandle>>();
+    private int _maxIdlePerKey;
+    private long _idleTimeout;
+    private long _created = 0;
+    private long _reused = 0;
+    private long _evictions = 0;
+
+    /**
+     * Returns the default pool.
+     *
+     * @return DBHandlePool
+     */
+    public static DBHandlePool getDefault()
+    {
+        return _default;
+    }
+
+    /**
+     * Sets the default pool. Handles held by the old pool are disconnected.
+     *
+     * @param pool The pool.
+     * @throws IllegalArgumentException if the pool is null.
+     */
+    public static void setDefault(DBHandlePool pool) throws IllegalArgumentException
+    {
+        if (pool == null) throw new IllegalArgumentException("pool cannot be null");
+        DBHandlePool old = _default;
+        _default = pool;
+        if (old != pool) old.close();
+    }
+
+    /**
+     * Creates a new pool.
+     *
+     * @param maxIdlePerKey The maximum number of idle handles to keep for any one key.
+     * @param idleTimeout The time in milliseconds an idle handle is kept connected.
+     */
+    public DBHandlePool(int maxIdlePerKey, long idleTimeout)
+    {
+        _maxIdlePerKey = maxIdlePerKey;
+        _idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Returns a connected handle for the given key. An idle handle is reused if one is available,
+     * otherwise a new one is created from the config and connected.
+     *
+     * @param key The key identifying the database and user.
+     * @param config The config to create a new handle with.
+     * @return DBHandle
+     * @throws SQLException if a new handle cannot be created or connected.
+     */
+    public DBHandle checkOut(String key, DBConfig config) throws SQLException
+    {
+        evictIdleHandles();
+        while (true)
+        {
+            DBHandle handle = null;
+            synchronized (this)
+            {
+                LinkedList<IdleHandle> idle = _idle.get(key);
+                if (idle != null && idle.size() > 0) handle = idle.removeLast().handle;
+            }
+            if (handle == null) break;
+            if ( isValid(handle) )
+            {
+                synchronized (this)
+                {
+                    _reused++;
+                }
+                return handle;
+            }
+            disconnect(handle);
+        }
+
+        DBHandle ret = null;
+        try
+        {
+            ret = DBHandleFactory.getDBHandle(config);
+        }
+        catch (Exception e)
+        {
+            throw new SQLException("Could not create db handle: "+e.getMessage(), e);
+        }
+        ret.connect();
+        synchronized (this)
+        {
+            _created++;
+        }
+        return ret;
+    }
+
+    /**
+     * Returns a handle to the pool once it is no longer being used. The handle is disconnected if the pool
+     * already has the maximum idle handles for the key.
+     *
+     * @param key The key the handle was checked out with.
+     * @param handle The handle.
+     */
+    public void checkIn(String key, DBHandle handle)
+    {
+        if (handle == null) return;
+        synchronized (this)
+        {
+            LinkedList<IdleHandle> idle = _idle.get(key);
+            if (idle == null)
+            {
+                idle = new LinkedList<IdleHandle>();
+                _idle.put(key, idle);
+            }
+            if (idle.size() < _maxIdlePerKey)
+            {
+                idle.add( new IdleHandle(handle) );
+                return;
+            }
+        }
+        disconnect(handle);
+    }
+
+    /**
+     * Disconnects a handle that should not be reused, such as one that had an error.
+     *
+     * @param handle The handle.
+     */
+    public void discard(DBHandle handle)
+    {
+        if (handle != null) disconnect(handle);
+    }
+
+    /**
+     * Disconnects the handles that have been idle longer than the idle timeout.
+     */
+    public void evictIdleHandles()
+    {
+        LinkedList<DBHandle> expired = new LinkedList<DBHandle>();
+        long now = System.currentTimeMillis();
+        synchronized (this)
+        {
+            for (Enumeration<LinkedList<IdleHandle>> e=_idle.elements(); e.hasMoreElements();)
+            {
+                for (Iterator<IdleHandle> i=e.nextElement().iterator(); i.hasNext();)
+                {
+                    IdleHandle idle = i.next();
+                    if (now - idle.since > _idleTimeout)
+                    {
+                        i.remove();
+                        expired.add(idle.handle);
+                    }
+                }
+            }
+        }
+        while (expired.size() > 0)
+        {
+            disconnect( expired.removeFirst() );
+        }
+    }
+
+    /**
+     * Disconnects all of the idle handles.
+     */
+    public void close()
+    {
+        LinkedList<DBHandle> handles = new LinkedList<DBHandle>();
+        synchronized (this)
+        {
+            for (Enumeration<LinkedList<IdleHandle>> e=_idle.elements(); e.hasMoreElements();)
+            {
+                for (Iterator<IdleHandle> i=e.nextElement().iterator(); i.hasNext();)
+                {
+                    handles.add(i.next().handle);
+                }
+            }
+            _idle.clear();
+        }
+        while (handles.size() > 0)
+        {
+            disconnect( handles.removeFirst() );
+        }
+    }
+
+    /**
+     * Returns the number of handles that have been created.
+     *
+     * @return long
+     */
+    public synchronized long getCreated()
+    {
+        return _created;
+    }
+
+    /**
+     * Returns the number of times an idle handle was reused.
+     *
+     * @return long
+     */
+    public synchronized long getReused()
+    {
+        return _reused;
+    }
+
+    /**
+     * Returns the number of handles that were disconnected because they were idle too long, failed
+     * validation, were discarded, or did not fit in the pool.
+     *
+     * @return long
+     */
+    public synchronized long getEvictions()
+    {
+        return _evictions;
+    }
+
+    /**
+     * Returns the number of idle handles in the pool.
+     *
+     * @return int
+     */
+    public synchronized int getIdleCount()
+    {
+        int ret = 0;
+        for (Enumeration<LinkedList<IdleHandle>> e=_idle.elements(); e.hasMoreElements();)
+        {
+            ret += e.nextElement().size();
+        }
+        return ret;
+    }
+
+    public String toString()
+    {
+        return "created=" + getCreated() + ", reused=" + getReused() + ", evictions=" + getEvictions() + ", idle=" + getIdleCount();
+    }
+
+    private boolean isValid(DBHandle handle)
+    {
+        try
+        {
+            PreparedStatement pst = handle.prepareStatement( new StringBuffer("SELECT 1") );
+            try
+            {
+                pst.executeQuery().close();
+            }
+            finally
+            {
+                pst.close();
+            }
+            return true;
+        }
+        catch (Exception e)
+        {
+            return false;
+        }
+    }
+
+    private void disconnect(DBHandle handle)
+    {
+        synchronized (this)
+        {
+            _evictions++;
+        }
+        try
+        {
+            handle.disconnect();
+        }
+        catch (Exception e) { }
+    }
+
+    /**
+     * A handle in the pool and when it was returned.
+     */
+    private static class IdleHandle
+    {
+        private DBHandle handle;
+        private long since = System.currentTimeMillis();
+
+        private IdleHandle(DBHandle handle)
+        {
+            this.handle = handle;
+        }
+    }
+}
\ No newline at end of file
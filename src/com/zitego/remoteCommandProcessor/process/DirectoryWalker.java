@@ -0,0 +1,153 @@
+package com.zitego.remoteCommandProcessor.process;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class walks a directory tree in parallel. Each directory is listed once by a task on a shared pool
+ * sized to the number of processors, and every subdirectory found is handed to the pool as a new task, so
+ * separate subtrees are walked at the same time. Symbolic links to directories are listed but not followed.
+ * Entries are returned with paths relative to the root using / as the separator.
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+class DirectoryWalker
+{
+    private static ExecutorService _pool = Executors.newFixedThreadPool
+    (
+        Runtime.getRuntime().availableProcessors(),
+        new ThreadFactory()
+        {
+            private AtomicInteger _count = new AtomicInteger();
+
+            public Thread newThread(Runnable r)
+            {
+                Thread ret = new Thread( r, "rcp-walker-" + _count.incrementAndGet() );
+                ret.setDaemon(true);
+                return ret;
+            }
+        }
+    );
+    private File _root;
+    private int _maxDepth;
+    private FilenameFilter _filter;
+    private ConcurrentLinkedQueue<Entry> _entries = new ConcurrentLinkedQueue<Entry>();
+    private AtomicInteger _pending = new AtomicInteger();
+    private CountDownLatch _done = new CountDownLatch(1);
+
+    /**
+     * Creates a new walker.
+     *
+     * @param root The root directory.
+     * @param maxDepth The number of levels to list. 1 lists only the root. Less than 1 means no limit.
+     * @param filter The filter entries must match to be returned. Can be null. Subdirectories are walked
+     *               whether or not they match.
+     */
+    DirectoryWalker(File root, int maxDepth, FilenameFilter filter)
+    {
+        _root = root;
+        _maxDepth = maxDepth;
+        _filter = filter;
+    }
+
+    /**
+     * Walks the tree and returns every matching entry. The order of the entries is not defined.
+     *
+     * @return List<Entry>
+     * @throws InterruptedException if interrupted while waiting for the walk to finish.
+     */
+    List<Entry> walk() throws InterruptedException
+    {
+        _pending.set(1);
+        submit(_root, "", 1);
+        _done.await();
+        return new ArrayList<Entry>(_entries);
+    }
+
+    private void submit(final File dir, final String prefix, final int depth)
+    {
+        _pool.execute
+        (
+            new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        visit(dir, prefix, depth);
+                    }
+                    finally
+                    {
+                        if (_pending.decrementAndGet() == 0) _done.countDown();
+                    }
+                }
+            }
+        );
+    }
+
+    private void visit(File dir, String prefix, int depth)
+    {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (int i=0; i<files.length; i++)
+        {
+            String name = files[i].getName();
+            String path = prefix + name;
+            if ( _filter == null || _filter.accept(dir, name) ) _entries.add( new Entry(path, files[i].lastModified(), files[i].length()) );
+            if ( (_maxDepth < 1 || depth < _maxDepth) && files[i].isDirectory() && !isLink(files[i]) )
+            {
+                _pending.incrementAndGet();
+                submit(files[i], path + "/", depth+1);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the file is a symbolic link by comparing its canonical path to the canonical
+     * path of its parent.
+     *
+     * @param file The file.
+     * @return boolean
+     */
+    private static boolean isLink(File file)
+    {
+        try
+        {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent == null) return false;
+            File resolved = new File( parent.getCanonicalFile(), file.getName() );
+            return !resolved.getCanonicalFile().equals( resolved.getAbsoluteFile() );
+        }
+        catch (IOException ioe)
+        {
+            return true;
+        }
+    }
+
+    /**
+     * A file found during the walk.
+     */
+    static class Entry
+    {
+        String path;
+        long lastModified;
+        long size;
+
+        Entry(String path, long lastModified, long size)
+        {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+    }
+}
\ No newline at end of file
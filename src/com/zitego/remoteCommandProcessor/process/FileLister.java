@@ -6,10 +6,13 @@ import com.zitego.remoteCommandProcessor.ProcessorArguments;
 import com.zitego.remoteCommandProcessor.CommandProcessorResult;
 import com.zitego.remoteCommandProcessor.CommandProcessorException;
 import com.zitego.markup.xml.XmlTag;
-import com.zitego.filemanager.util.WildcardFilter;
 import java.io.IOException;
 import java.io.File;
-import java.util.Date;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Vector;
 import java.util.Hashtable;
 
@@ -20,17 +23,48 @@ import java.util.Hashtable;
  * <xmp>
  * <processor-arguments>
  *  <directory>/<some_directory_path</directory>
+ *  <directory recursive="true" max_depth="3">/<some_directory_path</directory>
+ *  <directory sort="modified" order="desc" limit="1000" cursor="...">/<some_directory_path</directory>
  *  ...
  * </processor-arguments>
  * </xmp>
+ * A recursive directory lists every file beneath it, walking subdirectories in parallel, and the file names
+ * in the result are relative to the directory (ie: images/logo.gif). The max_depth attribute is optional and
+ * limits the number of levels listed where 1 is only the directory itself. Symbolic links to directories
+ * are listed but not followed.<br>
+ * <br>
+ * To poll a directory for changes, send since="" the first time. The result includes a token for the
+ * directory, and sending that token as the since value on the next request returns only the files added or
+ * modified since then along with deleted entries for files that are gone. The result marks a directory as
+ * incremental when it contains changes only. Only the last few versions of each listing are kept, so if the
+ * token is for a version that is no longer kept or has expired, the full listing is returned with a new token
+ * and the client should replace what it has.<br>
+ * <br>
+ * A listing can be sorted by name, size, or modified (last modified time) in asc or desc order. The default
+ * is by name ascending. When a limit is given, at most that many files are returned and the result includes
+ * a next cursor for the directory if there are more. Sending that cursor returns the page after it. Sort,
+ * limit, and cursor only apply to full listings and are ignored when since is sent.<br>
+ * <br>
+ * For large listings, the client can send <encoding>compact</encoding> or <encoding>compact-gzip</encoding>
+ * to have the files returned in the columnar encoding of FileListerResult instead of one tag per file.
  *
  * @author John Glorioso
  * @version $Id: FileLister.java,v 1.2 2010/11/09 02:34:36 jglorioso Exp $
  */
 public class FileLister extends CommandProcessor
 {
+    public static final String SORT_NAME = "name";
+    public static final String SORT_SIZE = "size";
+    public static final String SORT_MODIFIED = "modified";
     private Vector<String> _directories = new Vector<String>();
     private Hashtable<String, Vector<String>> _filters = new Hashtable<String, Vector<String>>();
+    private Hashtable<String, Integer> _recursive = new Hashtable<String, Integer>();
+    private Hashtable<String, String> _since = new Hashtable<String, String>();
+    private Hashtable<String, String> _sort = new Hashtable<String, String>();
+    private Hashtable<String, Boolean> _descending = new Hashtable<String, Boolean>();
+    private Hashtable<String, Integer> _limits = new Hashtable<String, Integer>();
+    private Hashtable<String, String> _cursors = new Hashtable<String, String>();
+    private String _encoding = FileListerResult.XML;
 
     public static void main(String[] a) throws Exception
     {
@@ -65,12 +99,71 @@ public class FileLister extends CommandProcessor
      */
     public void init(ProcessorArguments args) throws CommandProcessorException
     {
+        String encoding = args.getChildValue("encoding");
+        if (encoding != null)
+        {
+            try
+            {
+                setEncoding(encoding);
+            }
+            catch (IllegalArgumentException iae)
+            {
+                throw new CommandProcessorException( iae.getMessage() );
+            }
+        }
         Vector files = args.getChildrenWithName("directory");
         int size = files.size();
         for (int i=0; i<size; i++)
         {
             XmlTag tag = (XmlTag)files.get(i);
             addDirectory( tag.getValue(), tag.getTagAttribute("filter") );
+            if ( "true".equalsIgnoreCase(tag.getTagAttribute("recursive")) )
+            {
+                int maxDepth = 0;
+                String depth = tag.getTagAttribute("max_depth");
+                if (depth != null)
+                {
+                    try
+                    {
+                        maxDepth = Integer.parseInt(depth);
+                    }
+                    catch (NumberFormatException nfe)
+                    {
+                        throw new CommandProcessorException("Invalid max_depth: "+depth, nfe);
+                    }
+                }
+                setRecursive( tag.getValue(), maxDepth );
+            }
+            if (tag.getTagAttribute("since") != null) setSince( tag.getValue(), tag.getTagAttribute("since") );
+            if (tag.getTagAttribute("sort") != null || tag.getTagAttribute("order") != null)
+            {
+                String sort = tag.getTagAttribute("sort");
+                String order = tag.getTagAttribute("order");
+                if ( order != null && !"asc".equalsIgnoreCase(order) && !"desc".equalsIgnoreCase(order) )
+                {
+                    throw new CommandProcessorException("Invalid order: "+order);
+                }
+                try
+                {
+                    setSort( tag.getValue(), (sort != null ? sort : SORT_NAME), "desc".equalsIgnoreCase(order) );
+                }
+                catch (IllegalArgumentException iae)
+                {
+                    throw new CommandProcessorException( iae.getMessage() );
+                }
+            }
+            if (tag.getTagAttribute("limit") != null || tag.getTagAttribute("cursor") != null)
+            {
+                String limit = tag.getTagAttribute("limit");
+                try
+                {
+                    setPage( tag.getValue(), (limit != null ? Integer.parseInt(limit) : 0), tag.getTagAttribute("cursor") );
+                }
+                catch (NumberFormatException nfe)
+                {
+                    throw new CommandProcessorException("Invalid limit: "+limit, nfe);
+                }
+            }
         }
     }
 
@@ -97,49 +190,289 @@ public class FileLister extends CommandProcessor
         if (filter != null)
         {
             if (_filters.get(dir) == null) _filters.put( dir, new Vector<String>() );
-            _filters.get(dir).add(filter);
+            if ( !_filters.get(dir).contains(filter) ) _filters.get(dir).add(filter);
         }
     }
 
+    /**
+     * Sets the given directory to be listed recursively. The directory is added if it has not been already.
+     *
+     * @param dir The directory.
+     * @param maxDepth The number of levels to list where 1 is only the directory itself. 0 means no limit.
+     */
+    public void setRecursive(String dir, int maxDepth)
+    {
+        if (dir == null) return;
+        addDirectory(dir);
+        _recursive.put( dir, new Integer(maxDepth < 0 ? 0 : maxDepth) );
+    }
+
+    /**
+     * Returns whether the given directory is listed recursively.
+     *
+     * @param dir The directory.
+     * @return boolean
+     */
+    public boolean isRecursive(String dir)
+    {
+        return (dir != null && _recursive.get(dir) != null);
+    }
+
+    /**
+     * Sets the token returned by the last listing of the given directory so that only the changes since then
+     * are listed. An empty token lists everything and starts tracking changes. A null token stops tracking.
+     *
+     * @param dir The directory.
+     * @param token The token.
+     */
+    public void setSince(String dir, String token)
+    {
+        if (dir == null) return;
+        addDirectory(dir);
+        if (token == null) _since.remove(dir);
+        else _since.put(dir, token);
+    }
+
+    /**
+     * Sets how the given directory's listing is sorted.
+     *
+     * @param dir The directory.
+     * @param sort SORT_NAME, SORT_SIZE, or SORT_MODIFIED.
+     * @param descending Whether to sort in descending order.
+     * @throws IllegalArgumentException if the sort is not valid.
+     */
+    public void setSort(String dir, String sort, boolean descending) throws IllegalArgumentException
+    {
+        if (dir == null) return;
+        if ( !SORT_NAME.equals(sort) && !SORT_SIZE.equals(sort) && !SORT_MODIFIED.equals(sort) )
+        {
+            throw new IllegalArgumentException("Invalid sort: "+sort);
+        }
+        addDirectory(dir);
+        _sort.put(dir, sort);
+        _descending.put( dir, new Boolean(descending) );
+    }
+
+    /**
+     * Sets the page of the given directory's listing to return.
+     *
+     * @param dir The directory.
+     * @param limit The maximum number of files to return. 0 means no limit.
+     * @param cursor The next cursor from the previous page or null for the first page.
+     */
+    public void setPage(String dir, int limit, String cursor)
+    {
+        if (dir == null) return;
+        addDirectory(dir);
+        if (limit > 0) _limits.put( dir, new Integer(limit) );
+        else _limits.remove(dir);
+        if (cursor != null) _cursors.put(dir, cursor);
+        else _cursors.remove(dir);
+    }
+
+    /**
+     * Sets how the files are encoded in the result. FileListerResult.XML, COMPACT, or COMPACT_GZIP.
+     *
+     * @param encoding The encoding.
+     * @throws IllegalArgumentException if the encoding is not valid.
+     */
+    public void setEncoding(String encoding) throws IllegalArgumentException
+    {
+        if ( !FileListerResult.XML.equals(encoding) && !FileListerResult.COMPACT.equals(encoding) && !FileListerResult.COMPACT_GZIP.equals(encoding) )
+        {
+            throw new IllegalArgumentException("Invalid encoding: "+encoding);
+        }
+        _encoding = encoding;
+    }
+
     public CommandProcessorResult execute()
     {
         FileListerResult ret = new FileListerResult();
+        ret.setEncoding(_encoding);
         int size = _directories.size();
         for (int i=0; i<size; i++)
         {
             String dir = _directories.get(i);
-            if (_filters.get(dir) == null || _filters.get(dir).size() == 0)
+            List<DirectoryWalker.Entry> entries = null;
+            try
             {
-                File[] files = new File(dir).listFiles();
-                if (files == null) files = new File[0];
-                for (int j=0; j<files.length; j++)
-                {
-                    ret.addResult(dir, files[j].getName(), new Date(files[j].lastModified()), files[j].length() );
-                }
+                entries = list(dir);
             }
-            else
+            catch (InterruptedException ie)
             {
-                Vector<String> filters = _filters.get(dir);
-                int size2 = filters.size();
-                for (int j=0; j<size2; j++)
+                ret.setType(CommandProcessorResult.FAILURE);
+                ret.setReason("Interrupted while listing "+dir);
+                ret.setStackTrace(ie);
+                return ret;
+            }
+            String since = _since.get(dir);
+            if (since == null)
+            {
+                Comparator<DirectoryWalker.Entry> comparator = getComparator(dir);
+                Collections.sort(entries, comparator);
+                int start = 0;
+                if (_cursors.get(dir) != null)
                 {
-                    File[] files = new File(dir).listFiles( new WildcardFilter(filters.get(j), false) );
-                    if (files == null) files = new File[0];
-                    for (int k=0; k<files.length; k++)
+                    DirectoryWalker.Entry cursor = parseCursor( dir, _cursors.get(dir) );
+                    if (cursor == null)
                     {
-                        ret.addResult(dir, files[k].getName(), new Date(files[k].lastModified()), files[k].length() );
+                        ret.setType(CommandProcessorResult.FAILURE);
+                        ret.setReason( "Invalid cursor for "+dir+": "+_cursors.get(dir) );
+                        return ret;
                     }
+                    start = Collections.binarySearch(entries, cursor, comparator);
+                    start = (start >= 0 ? start + 1 : -start - 1);
+                }
+                int end = entries.size();
+                if (_limits.get(dir) != null && end - start > _limits.get(dir).intValue() )
+                {
+                    end = start + _limits.get(dir).intValue();
+                    ret.setNextCursor( dir, createCursor(dir, entries.get(end-1)) );
+                }
+                for (int j=start; j<end; j++)
+                {
+                    DirectoryWalker.Entry entry = entries.get(j);
+                    ret.addResult( dir, entry.path, entry.lastModified, entry.size );
                 }
             }
+            else
+            {
+                String key = getSnapshotKey(dir);
+                ListingSnapshot current = new ListingSnapshot(key, entries);
+                ListingSnapshot previous = ListingSnapshot.get(since, key);
+                if (previous == null) current.addAll(ret, dir);
+                else current.addChanges(previous, ret, dir);
+                ret.setIncremental(dir, previous != null);
+                ret.setToken( dir, ListingSnapshot.save(current) );
+            }
         }
         ret.setType(CommandProcessorResult.SUCCESS);
         return ret;
     }
 
+    /**
+     * Lists the given directory applying its filters.
+     *
+     * @param dir The directory.
+     * @return List<DirectoryWalker.Entry>
+     * @throws InterruptedException if interrupted during a recursive listing.
+     */
+    private List<DirectoryWalker.Entry> list(String dir) throws InterruptedException
+    {
+        Vector<String> patterns = _filters.get(dir);
+        FilenameFilter filter = null;
+        if (patterns != null && patterns.size() > 0) filter = new WildcardMatcher(patterns, false);
+        if ( isRecursive(dir) ) return new DirectoryWalker( new File(dir), _recursive.get(dir).intValue(), filter ).walk();
+
+        //All of the filters are applied in one pass so each file is listed once even if it matches several
+        File[] files = new File(dir).listFiles(filter);
+        if (files == null) files = new File[0];
+        List<DirectoryWalker.Entry> ret = new ArrayList<DirectoryWalker.Entry>(files.length);
+        for (int i=0; i<files.length; i++)
+        {
+            ret.add( new DirectoryWalker.Entry(files[i].getName(), files[i].lastModified(), files[i].length()) );
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the comparator for the given directory's sort. Files with the same size or last modified time
+     * are ordered by name so that every file has a distinct position to page from.
+     *
+     * @param dir The directory.
+     * @return Comparator<DirectoryWalker.Entry>
+     */
+    private Comparator<DirectoryWalker.Entry> getComparator(String dir)
+    {
+        final String sort = (_sort.get(dir) != null ? _sort.get(dir) : SORT_NAME);
+        final boolean descending = (_descending.get(dir) != null && _descending.get(dir).booleanValue());
+        return new Comparator<DirectoryWalker.Entry>()
+        {
+            public int compare(DirectoryWalker.Entry e1, DirectoryWalker.Entry e2)
+            {
+                int ret = 0;
+                if ( SORT_SIZE.equals(sort) ) ret = compareLongs(e1.size, e2.size);
+                else if ( SORT_MODIFIED.equals(sort) ) ret = compareLongs(e1.lastModified, e2.lastModified);
+                if (ret == 0) ret = e1.path.compareTo(e2.path);
+                return (descending ? -ret : ret);
+            }
+        };
+    }
+
+    private static int compareLongs(long l1, long l2)
+    {
+        return (l1 < l2 ? -1 : (l1 == l2 ? 0 : 1));
+    }
+
+    /**
+     * Returns the cursor for the page that starts after the given entry. The cursor is the sort value
+     * followed by a colon and the file name, or just the file name when sorting by name.
+     *
+     * @param dir The directory.
+     * @param last The last entry of the page.
+     * @return String
+     */
+    private String createCursor(String dir, DirectoryWalker.Entry last)
+    {
+        String sort = _sort.get(dir);
+        if ( SORT_SIZE.equals(sort) ) return last.size + ":" + last.path;
+        else if ( SORT_MODIFIED.equals(sort) ) return last.lastModified + ":" + last.path;
+        else return last.path;
+    }
+
+    /**
+     * Returns an entry positioned at the given cursor or null if the cursor is not valid for the directory's sort.
+     *
+     * @param dir The directory.
+     * @param cursor The cursor.
+     * @return DirectoryWalker.Entry
+     */
+    private DirectoryWalker.Entry parseCursor(String dir, String cursor)
+    {
+        String sort = _sort.get(dir);
+        if (sort == null || SORT_NAME.equals(sort) ) return new DirectoryWalker.Entry(cursor, 0, 0);
+        int index = cursor.indexOf(":");
+        if (index == -1) return null;
+        long value = 0;
+        try
+        {
+            value = Long.parseLong( cursor.substring(0, index) );
+        }
+        catch (NumberFormatException nfe)
+        {
+            return null;
+        }
+        String path = cursor.substring(index+1);
+        if ( SORT_SIZE.equals(sort) ) return new DirectoryWalker.Entry(path, 0, value);
+        else return new DirectoryWalker.Entry(path, value, 0);
+    }
+
+    /**
+     * Returns the key that identifies a listing of the given directory so that a token is only honored for
+     * a listing made the same way.
+     *
+     * @param dir The directory.
+     * @return String
+     */
+    private String getSnapshotKey(String dir)
+    {
+        StringBuffer ret = new StringBuffer(dir);
+        ret.append("|").append( isRecursive(dir) ? _recursive.get(dir).toString() : "-" );
+        Vector<String> patterns = _filters.get(dir);
+        if (patterns != null) ret.append("|").append(patterns);
+        return ret.toString();
+    }
+
     public CommandProcessorDocument createDocument()
     {
         CommandProcessorDocument doc = super.createDocument();
         ProcessorArguments args = doc.getProcessorArguments();
+        if ( !FileListerResult.XML.equals(_encoding) )
+        {
+            XmlTag tag = new XmlTag("encoding", args);
+            tag.addBodyContent(_encoding);
+            args.addBodyContent(tag);
+        }
         int size = _directories.size();
         for (int i=0; i<size; i++)
         {
@@ -148,6 +481,7 @@ public class FileLister extends CommandProcessor
             if (filters == null || filters.size() == 0)
             {
                 XmlTag tag = new XmlTag("directory", args);
+                setDirectoryAttributes(tag, dir);
                 tag.addBodyContent(dir);
                 args.addBodyContent(tag);
             }
@@ -158,6 +492,7 @@ public class FileLister extends CommandProcessor
                 {
                     XmlTag tag = new XmlTag("directory", args);
                     tag.setAttribute( "filter", filters.get(j) );
+                    setDirectoryAttributes(tag, dir);
                     tag.addBodyContent(dir);
                     args.addBodyContent(tag);
                 }
@@ -165,4 +500,20 @@ public class FileLister extends CommandProcessor
         }
         return doc;
     }
+
+    private void setDirectoryAttributes(XmlTag tag, String dir)
+    {
+        if (_since.get(dir) != null) tag.setAttribute( "since", _since.get(dir) );
+        if (_sort.get(dir) != null)
+        {
+            tag.setAttribute( "sort", _sort.get(dir) );
+            if ( _descending.get(dir).booleanValue() ) tag.setAttribute("order", "desc");
+        }
+        if (_limits.get(dir) != null) tag.setAttribute( "limit", _limits.get(dir).toString() );
+        if (_cursors.get(dir) != null) tag.setAttribute( "cursor", _cursors.get(dir) );
+        if ( !isRecursive(dir) ) return;
+        tag.setAttribute("recursive", "true");
+        int maxDepth = _recursive.get(dir).intValue();
+        if (maxDepth > 0) tag.setAttribute( "max_depth", String.valueOf(maxDepth) );
+    }
 }
\ No newline at end of file
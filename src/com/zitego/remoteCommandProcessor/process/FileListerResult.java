@@ -2,20 +2,43 @@ package com.zitego.remoteCommandProcessor.process;
 
 import com.zitego.remoteCommandProcessor.CommandProcessorResult;
 import com.zitego.markup.xml.XmlTag;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Vector;
 
 /**
- * An extension of the command processor result to contain directory listing results.
+ * An extension of the command processor result to contain directory listing results. When a directory
+ * listing was limited, the next cursor for the directory is set to the value to send as the cursor to get
+ * the next page. Large listings should be serialized with serialize(Writer), which writes each entry
+ * directly instead of building the xml tag tree first. This only helps when the caller writing the
+ * response (or an enclosing BatchProcessorResult) uses serialize(Writer) rather than serialize() or toXml().<br>
+ * <br>
+ * The files in each directory are written as file tags unless the encoding is set to COMPACT or COMPACT_GZIP,
+ * in which case they are written as a single files tag holding the columnar encoding described in
+ * CompactListing. Either way, deserialize reads them back into the same files so callers do not change.<br>
+ * <br>
+ * The files are stored in parallel arrays per directory rather than as objects so that listings with
+ * millions of entries stay small in memory while they are built and serialized. The first call to getFiles
+ * for a directory creates its File objects, and from then on that Vector holds the directory's files, so
+ * changes made to it are kept and serialized.
  *
  * @author John Glorioso
  * @version $Id: FileListerResult.java,v 1.2 2010/11/09 02:34:36 jglorioso Exp $
  */
 public class FileListerResult extends CommandProcessorResult
 {
-    private Hashtable<String, Vector<File>> _fileListings;
+    public static final String XML = "xml";
+    public static final String COMPACT = "compact";
+    public static final String COMPACT_GZIP = "compact-gzip";
+    private Hashtable<String, Listing> _fileListings;
+    private Hashtable<String, Vector<String>> _deleted = new Hashtable<String, Vector<String>>();
+    private Hashtable<String, String> _tokens = new Hashtable<String, String>();
+    private Hashtable<String, Boolean> _incremental = new Hashtable<String, Boolean>();
+    private Hashtable<String, String> _nextCursors = new Hashtable<String, String>();
+    private String _encoding = XML;
 
     /**
      * Creates a new FileLister result.
@@ -23,7 +46,7 @@ public class FileListerResult extends CommandProcessorResult
     public FileListerResult()
     {
         super(SUCCESS);
-        _fileListings = new Hashtable<String, Vector<File>>();
+        _fileListings = new Hashtable<String, Listing>();
     }
 
     /**
@@ -41,17 +64,218 @@ public class FileListerResult extends CommandProcessorResult
      * @param file The file.
      */
     public void addResult(String dir, String file, Date lastModified, long size)
+    {
+        addResult( dir, file, (lastModified != null ? lastModified.getTime() : 0), size );
+    }
+
+    /**
+     * Adds a file to the listing of the given directory.
+     *
+     * @param dir The directory.
+     * @param file The file.
+     * @param lastModified The last modified time in milliseconds.
+     * @param size The size in bytes.
+     */
+    public void addResult(String dir, String file, long lastModified, long size)
     {
         if (dir == null || file == null) return;
 
-        if (_fileListings.get(dir) == null) _fileListings.put( dir, new Vector<File>() );
-        _fileListings.get(dir).add( new File(file, lastModified, size) );
+        Listing listing = getListing(dir);
+        if (listing.getFiles() != null) listing.getFiles().add( new File(file, new Date(lastModified), size) );
+        else listing.add(file, lastModified, size);
     }
 
+    /**
+     * Returns the files in the given directory or null if the directory is not in the result.
+     *
+     * @param dir The directory.
+     * @return Vector<File>
+     */
     public Vector<File> getFiles(String dir)
     {
         if (dir == null) return null;
-        else return _fileListings.get(dir);
+
+        Listing listing = _fileListings.get(dir);
+        if (listing == null) return null;
+        if (listing.getFiles() == null)
+        {
+            int size = listing.size();
+            Vector<File> files = new Vector<File>(size);
+            for (int i=0; i<size; i++)
+            {
+                files.add( new File(listing.getPath(i), new Date(listing.getLastModified(i)), listing.getSize(i)) );
+            }
+            listing.setFiles(files);
+        }
+        return listing.getFiles();
+    }
+
+    /**
+     * Returns the listing for the given directory, creating it if it does not exist.
+     *
+     * @param dir The directory.
+     * @return Listing
+     */
+    Listing getListing(String dir)
+    {
+        Listing ret = _fileListings.get(dir);
+        if (ret == null)
+        {
+            ret = new Listing();
+            _fileListings.put(dir, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Adds a file that was deleted from the given directory since the listing the request's since token
+     * refers to.
+     *
+     * @param dir The directory.
+     * @param file The file.
+     */
+    public void addDeleted(String dir, String file)
+    {
+        if (dir == null || file == null) return;
+
+        if (_deleted.get(dir) == null) _deleted.put( dir, new Vector<String>() );
+        _deleted.get(dir).add(file);
+    }
+
+    /**
+     * Returns the files deleted from the given directory since the previous listing or null if there are none.
+     *
+     * @param dir The directory.
+     * @return Vector<String>
+     */
+    public Vector<String> getDeleted(String dir)
+    {
+        if (dir == null) return null;
+        else return _deleted.get(dir);
+    }
+
+    /**
+     * Sets the token to send as the since value the next time the given directory is listed.
+     *
+     * @param dir The directory.
+     * @param token The token.
+     */
+    public void setToken(String dir, String token)
+    {
+        if (dir == null || token == null) return;
+
+        getListing(dir);
+        _tokens.put(dir, token);
+    }
+
+    /**
+     * Returns the token for the given directory or null if changes are not being tracked for it.
+     *
+     * @param dir The directory.
+     * @return String
+     */
+    public String getToken(String dir)
+    {
+        if (dir == null) return null;
+        else return _tokens.get(dir);
+    }
+
+    /**
+     * Sets whether the listing of the given directory only contains the changes since the previous listing.
+     *
+     * @param dir The directory.
+     * @param incremental Whether the listing is incremental.
+     */
+    public void setIncremental(String dir, boolean incremental)
+    {
+        if (dir == null) return;
+
+        getListing(dir);
+        _incremental.put( dir, new Boolean(incremental) );
+    }
+
+    /**
+     * Returns whether the listing of the given directory only contains the changes since the previous
+     * listing. When this is false the listing is complete and the client should replace what it has.
+     *
+     * @param dir The directory.
+     * @return boolean
+     */
+    public boolean isIncremental(String dir)
+    {
+        if (dir == null || _incremental.get(dir) == null) return false;
+        else return _incremental.get(dir).booleanValue();
+    }
+
+    /**
+     * Sets the cursor to request the next page of the given directory with.
+     *
+     * @param dir The directory.
+     * @param cursor The cursor.
+     */
+    public void setNextCursor(String dir, String cursor)
+    {
+        if (dir == null || cursor == null) return;
+
+        getListing(dir);
+        _nextCursors.put(dir, cursor);
+    }
+
+    /**
+     * Returns the cursor to request the next page of the given directory with or null if this is the last page.
+     *
+     * @param dir The directory.
+     * @return String
+     */
+    public String getNextCursor(String dir)
+    {
+        if (dir == null) return null;
+        else return _nextCursors.get(dir);
+    }
+
+    /**
+     * Sets how the files are encoded when the result is serialized. XML, COMPACT, or COMPACT_GZIP.
+     *
+     * @param encoding The encoding.
+     * @throws IllegalArgumentException if the encoding is not valid.
+     */
+    public void setEncoding(String encoding) throws IllegalArgumentException
+    {
+        if ( !XML.equals(encoding) && !COMPACT.equals(encoding) && !COMPACT_GZIP.equals(encoding) )
+        {
+            throw new IllegalArgumentException("Invalid encoding: "+encoding);
+        }
+        _encoding = encoding;
+    }
+
+    /**
+     * Returns how the files are encoded when the result is serialized.
+     *
+     * @return String
+     */
+    public String getEncoding()
+    {
+        return _encoding;
+    }
+
+    /**
+     * Returns the compact encoding of the given directory's files or null if the encoding is XML.
+     *
+     * @param path The directory.
+     * @return String
+     */
+    private String encodeFiles(String path)
+    {
+        if ( XML.equals(_encoding) ) return null;
+        try
+        {
+            return CompactListing.encode( _fileListings.get(path), COMPACT_GZIP.equals(_encoding) );
+        }
+        catch (IOException ioe)
+        {
+            //Only written to memory, but fall back to file tags regardless
+            return null;
+        }
     }
 
     protected XmlTag getDetails()
@@ -62,19 +286,73 @@ public class FileListerResult extends CommandProcessorResult
             String path = e.nextElement();
             XmlTag dir = new XmlTag("directory", ret);
             dir.setAttribute("path", path);
-            Vector<File> files = _fileListings.get(path);
+            if (_tokens.get(path) != null) dir.setAttribute( "token", _tokens.get(path) );
+            if ( isIncremental(path) ) dir.setAttribute("incremental", "true");
+            if (_nextCursors.get(path) != null) dir.setAttribute( "next_cursor", _nextCursors.get(path) );
+            Listing files = _fileListings.get(path);
             int size = files.size();
+            String compact = encodeFiles(path);
+            if (compact != null)
+            {
+                XmlTag tag = new XmlTag("files", dir);
+                tag.setAttribute("encoding", _encoding);
+                tag.addBodyContent(compact);
+                size = 0;
+            }
             for (int i=0; i<size; i++)
             {
                 XmlTag file = new XmlTag("file", dir);
-                file.setAttribute( "lastModified", String.valueOf(files.get(i).lastModified.getTime()) );
-                file.setAttribute( "size", String.valueOf(files.get(i).size) );
-                file.addBodyContent(files.get(i).path);
+                file.setAttribute( "lastModified", String.valueOf(files.getLastModified(i)) );
+                file.setAttribute( "size", String.valueOf(files.getSize(i)) );
+                file.addBodyContent( files.getPath(i) );
+            }
+            Vector<String> deleted = _deleted.get(path);
+            size = (deleted != null ? deleted.size() : 0);
+            for (int i=0; i<size; i++)
+            {
+                XmlTag file = new XmlTag("deleted", dir);
+                file.addBodyContent( deleted.get(i) );
             }
         }
         return ret;
     }
 
+    protected void writeDetails(Writer out) throws IOException
+    {
+        out.write("<listing>");
+        for (Enumeration<String> e=_fileListings.keys(); e.hasMoreElements();)
+        {
+            String path = e.nextElement();
+            out.write( "<directory path=\"" + escapeXml(path) + "\"" );
+            if (_tokens.get(path) != null) out.write( " token=\"" + escapeXml(_tokens.get(path)) + "\"" );
+            if ( isIncremental(path) ) out.write(" incremental=\"true\"");
+            if (_nextCursors.get(path) != null) out.write( " next_cursor=\"" + escapeXml(_nextCursors.get(path)) + "\"" );
+            out.write(">");
+            Listing files = _fileListings.get(path);
+            int size = files.size();
+            String compact = encodeFiles(path);
+            if (compact != null)
+            {
+                out.write( "<files encoding=\"" + _encoding + "\">" + compact + "</files>" );
+                size = 0;
+            }
+            for (int i=0; i<size; i++)
+            {
+                out.write( "<file lastModified=\"" + files.getLastModified(i) + "\" size=\"" + files.getSize(i) + "\">" );
+                out.write( escapeXml(files.getPath(i)) );
+                out.write("</file>");
+            }
+            Vector<String> deleted = _deleted.get(path);
+            size = (deleted != null ? deleted.size() : 0);
+            for (int i=0; i<size; i++)
+            {
+                out.write( "<deleted>" + escapeXml(deleted.get(i)) + "</deleted>" );
+            }
+            out.write("</directory>");
+        }
+        out.write("</listing>");
+    }
+
     public void deserialize(XmlTag tag)
     {
         if (tag == null) return;
@@ -86,15 +364,40 @@ public class FileListerResult extends CommandProcessorResult
             int size = directories.size();
             for (int i=0; i<size; i++)
             {
+                String path = directories.get(i).getTagAttribute("path");
+                setToken( path, directories.get(i).getTagAttribute("token") );
+                if ( "true".equals(directories.get(i).getTagAttribute("incremental")) ) setIncremental(path, true);
+                setNextCursor( path, directories.get(i).getTagAttribute("next_cursor") );
+                Vector<XmlTag> deleted = (Vector<XmlTag>)directories.get(i).getChildrenWithName("deleted");
+                int size2 = deleted.size();
+                for (int j=0; j<size2; j++)
+                {
+                    addDeleted( path, deleted.get(j).getValue() );
+                }
+                XmlTag compact = directories.get(i).getFirstOccurrenceOf("files");
+                if (compact != null)
+                {
+                    String encoding = compact.getTagAttribute("encoding");
+                    if ( !COMPACT.equals(encoding) && !COMPACT_GZIP.equals(encoding) ) throw new IllegalArgumentException("Invalid files encoding: "+encoding);
+                    try
+                    {
+                        CompactListing.decode( compact.getValue(), COMPACT_GZIP.equals(encoding), this, path );
+                    }
+                    catch (IOException ioe)
+                    {
+                        throw new IllegalArgumentException( "Invalid compact listing for "+path+": "+ioe.getMessage() );
+                    }
+                    setEncoding(encoding);
+                }
                 Vector<XmlTag> files = (Vector<XmlTag>)directories.get(i).getChildrenWithName("file");
-                int size2 = files.size();
+                size2 = files.size();
                 for (int j=0; j<size2; j++)
                 {
                     addResult
                     (
                         directories.get(i).getTagAttribute("path"),
                         files.get(j).getValue(),
-                        new Date( Long.parseLong(files.get(j).getTagAttribute("lastModified")) ),
+                        Long.parseLong( files.get(j).getTagAttribute("lastModified") ),
                         Long.parseLong( files.get(j).getTagAttribute("size") )
                     );
                 }
@@ -102,6 +405,94 @@ public class FileListerResult extends CommandProcessorResult
         }
     }
 
+    /**
+     * The files in a directory stored in parallel arrays. The names are kept end to end in one character
+     * array so an entry costs its characters plus three primitives instead of four objects. Once getFiles
+     * has been called for the directory, the files are kept in that Vector instead and the arrays are released.
+     */
+    static class Listing
+    {
+        private char[] _chars = new char[256];
+        private int _charCount = 0;
+        private int[] _ends = new int[16];
+        private long[] _lastModified = new long[16];
+        private long[] _sizes = new long[16];
+        private int _size = 0;
+        private Vector<File> _files;
+
+        void add(String path, long lastModified, long size)
+        {
+            if (_size == _ends.length)
+            {
+                int capacity = _size * 2;
+                int[] ends = new int[capacity];
+                System.arraycopy(_ends, 0, ends, 0, _size);
+                _ends = ends;
+                long[] times = new long[capacity];
+                System.arraycopy(_lastModified, 0, times, 0, _size);
+                _lastModified = times;
+                long[] sizes = new long[capacity];
+                System.arraycopy(_sizes, 0, sizes, 0, _size);
+                _sizes = sizes;
+            }
+            int len = path.length();
+            if (_charCount + len > _chars.length)
+            {
+                char[] chars = new char[Math.max(_chars.length * 2, _charCount + len)];
+                System.arraycopy(_chars, 0, chars, 0, _charCount);
+                _chars = chars;
+            }
+            path.getChars(0, len, _chars, _charCount);
+            _charCount += len;
+            _ends[_size] = _charCount;
+            _lastModified[_size] = lastModified;
+            _sizes[_size] = size;
+            _size++;
+        }
+
+        Vector<File> getFiles()
+        {
+            return _files;
+        }
+
+        void setFiles(Vector<File> files)
+        {
+            _files = files;
+            _chars = null;
+            _ends = null;
+            _lastModified = null;
+            _sizes = null;
+            _size = 0;
+        }
+
+        String getPath(int index)
+        {
+            if (_files != null) return _files.get(index).path;
+            if (index >= _size) throw new IndexOutOfBoundsException("Index: "+index+", Size: "+_size);
+            int start = (index == 0 ? 0 : _ends[index-1]);
+            return new String(_chars, start, _ends[index] - start);
+        }
+
+        long getLastModified(int index)
+        {
+            if (_files != null) return (_files.get(index).lastModified != null ? _files.get(index).lastModified.getTime() : 0);
+            if (index >= _size) throw new IndexOutOfBoundsException("Index: "+index+", Size: "+_size);
+            return _lastModified[index];
+        }
+
+        long getSize(int index)
+        {
+            if (_files != null) return _files.get(index).size;
+            if (index >= _size) throw new IndexOutOfBoundsException("Index: "+index+", Size: "+_size);
+            return _sizes[index];
+        }
+
+        int size()
+        {
+            return (_files != null ? _files.size() : _size);
+        }
+    }
+
     public class File implements Comparable
     {
         public String path;
@@ -10,16 +10,26 @@ import com.zitego.util.FileUtils;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.BufferedWriter;
+import java.io.RandomAccessFile;
 import java.util.Vector;
 
 /**
  * This class handles reading text content from a file. The expected processor arguments object should contain
- * one file entities. Each entity should contain the absolute path to the file to be read.
+ * one file entities. Each entity should contain the absolute path to the file to be read. Optionally, an offset
+ * and length can be given to read only a range of the file, and an encoding of base64 can be given to return
+ * the raw bytes rather than text. Large files should be read in ranges with RemoteFileInputStream so that
+ * neither side ever holds more than one chunk of the file in memory. To read just the end of a file such as a
+ * log, tail_bytes or tail_lines can be given instead of an offset. Ranged reads return the file size, last
+ * modified time, and the offset to use next in order to poll a growing file for only what has been added.
  * The xml should look as follows:<br>
  * <xmp>
  * <processor-arguments>
  *  <file>/<some_directory_path/<filename></file>
- *  ...
+ *  <offset>0</offset> (optional, default is 0)
+ *  <length>1048576</length> (optional, default is the rest of the file)
+ *  <encoding>base64</encoding> (optional, default is text)
+ *  <tail_bytes>4096</tail_bytes> (optional, reads the last number of bytes)
+ *  <tail_lines>100</tail_lines> (optional, reads the last number of lines)
  * </processor-arguments>
  * </xmp>
  *
@@ -28,13 +38,22 @@ import java.util.Vector;
  */
 public class FileReader extends CommandProcessor
 {
+    public static final String TEXT = "text";
+    public static final String BASE64 = "base64";
     private String _file;
+    private long _offset = -1;
+    private long _length = -1;
+    private String _encoding = TEXT;
+    private long _tailBytes = -1;
+    private long _tailLines = -1;
 
     public static void main(String[] a) throws Exception
     {
         FileReader reader = new FileReader();
         ProcessorArguments args = new ProcessorArguments();
         args.addArgument("file", a[0]);
+        if (a.length > 1) args.addArgument("offset", a[1]);
+        if (a.length > 2) args.addArgument("length", a[2]);
         reader.init(args);
         FileReaderResult result = (FileReaderResult)reader.execute();
         System.out.println( "Result: " + (result.getType() == result.SUCCESS ? "SUCCESS" : "FAILURE") );
@@ -60,6 +79,52 @@ public class FileReader extends CommandProcessor
         _file = file;
     }
 
+    /**
+     * Sets the range of the file to read. A negative offset or length means the start or the
+     * rest of the file respectively.
+     *
+     * @param offset The byte offset to start reading from.
+     * @param length The number of bytes to read.
+     */
+    public void setRange(long offset, long length)
+    {
+        _offset = offset;
+        _length = length;
+    }
+
+    /**
+     * Sets the number of bytes to read from the end of the file. This takes precedence over the offset.
+     *
+     * @param bytes The number of bytes.
+     */
+    public void setTailBytes(long bytes)
+    {
+        _tailBytes = bytes;
+    }
+
+    /**
+     * Sets the number of lines to read from the end of the file. This takes precedence over the offset
+     * and tail bytes.
+     *
+     * @param lines The number of lines.
+     */
+    public void setTailLines(long lines)
+    {
+        _tailLines = lines;
+    }
+
+    /**
+     * Sets the encoding of the returned content. Either TEXT or BASE64.
+     *
+     * @param encoding The encoding.
+     * @throws IllegalArgumentException if the encoding is not supported.
+     */
+    public void setEncoding(String encoding) throws IllegalArgumentException
+    {
+        if ( !TEXT.equals(encoding) && !BASE64.equals(encoding) ) throw new IllegalArgumentException("Invalid encoding: "+encoding);
+        _encoding = encoding;
+    }
+
     /**
      * The processor arguments should a file argument.
      *
@@ -68,6 +133,37 @@ public class FileReader extends CommandProcessor
     public void init(ProcessorArguments args) throws CommandProcessorException
     {
         _file = args.getChildValue("file");
+        if (_file == null) throw new CommandProcessorException("<file> is required");
+        _offset = parseLong(args, "offset");
+        _length = parseLong(args, "length");
+        _tailBytes = parseLong(args, "tail_bytes");
+        _tailLines = parseLong(args, "tail_lines");
+        String val = args.getChildValue("encoding");
+        if (val != null)
+        {
+            try
+            {
+                setEncoding( val.toLowerCase() );
+            }
+            catch (IllegalArgumentException iae)
+            {
+                throw new CommandProcessorException( iae.getMessage() );
+            }
+        }
+    }
+
+    private long parseLong(ProcessorArguments args, String name) throws CommandProcessorException
+    {
+        String val = args.getChildValue(name);
+        if (val == null) return -1;
+        try
+        {
+            return Long.parseLong(val);
+        }
+        catch (NumberFormatException nfe)
+        {
+            throw new CommandProcessorException("Invalid value for <"+name+">: "+val);
+        }
     }
 
     public CommandProcessorResult execute()
@@ -75,9 +171,16 @@ public class FileReader extends CommandProcessor
         FileReaderResult ret = null;
         try
         {
-            String content = FileUtils.getFileContents(_file);
-            ret = new FileReaderResult(CommandProcessorResult.SUCCESS);
-            ret.setContent(content);
+            if (_offset < 0 && _length < 0 && _tailBytes < 0 && _tailLines < 0 && TEXT.equals(_encoding))
+            {
+                String content = FileUtils.getFileContents(_file);
+                ret = new FileReaderResult(CommandProcessorResult.SUCCESS);
+                ret.setContent(content);
+            }
+            else
+            {
+                ret = readRange();
+            }
         }
         catch (IOException ioe)
         {
@@ -88,6 +191,70 @@ public class FileReader extends CommandProcessor
         return ret;
     }
 
+    /**
+     * Reads only the requested range of the file. Just the bytes in the range are loaded.
+     *
+     * @return FileReaderResult
+     * @throws IOException if an error occurs.
+     */
+    private FileReaderResult readRange() throws IOException
+    {
+        RandomAccessFile in = new RandomAccessFile(_file, "r");
+        try
+        {
+            long size = in.length();
+            long offset = Math.min( Math.max(_offset, 0), size );
+            if (_tailLines >= 0) offset = findTailLinesOffset(in, size, _tailLines);
+            else if (_tailBytes >= 0) offset = Math.max(size - _tailBytes, 0);
+            long length = size - offset;
+            if (_length >= 0 && _length < length) length = _length;
+            if (length > Integer.MAX_VALUE) throw new IOException("Requested range of "+length+" bytes is too large, use a smaller length");
+            byte[] data = new byte[(int)length];
+            in.seek(offset);
+            in.readFully(data);
+            FileReaderResult ret = new FileReaderResult(CommandProcessorResult.SUCCESS);
+            ret.setRange(offset, size);
+            ret.setLastModified( new java.io.File(_file).lastModified() );
+            if ( BASE64.equals(_encoding) ) ret.setBytes(data);
+            else ret.setContent( new String(data) );
+            return ret;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Scans backwards from the end of the file a block at a time and returns the offset of the start of
+     * the last given number of lines. A newline at the very end of the file does not count as a line.
+     *
+     * @param in The file.
+     * @param size The file size.
+     * @param lines The number of lines.
+     * @return long
+     * @throws IOException if an error occurs.
+     */
+    private long findTailLinesOffset(RandomAccessFile in, long size, long lines) throws IOException
+    {
+        if (lines == 0) return size;
+        byte[] buf = new byte[8192];
+        long pos = size;
+        long count = 0;
+        while (pos > 0)
+        {
+            int len = (int)Math.min(buf.length, pos);
+            pos -= len;
+            in.seek(pos);
+            in.readFully(buf, 0, len);
+            for (int i=len-1; i>=0; i--)
+            {
+                if (buf[i] == '\n' && pos+i != size-1 && ++count == lines) return pos+i+1;
+            }
+        }
+        return 0;
+    }
+
     public CommandProcessorDocument createDocument()
     {
         CommandProcessorDocument doc = super.createDocument();
@@ -95,6 +262,36 @@ public class FileReader extends CommandProcessor
         XmlTag tag = new XmlTag("file", args);
         tag.addBodyContent(_file);
         args.addBodyContent(tag);
+        if (_offset >= 0)
+        {
+            tag = new XmlTag("offset", args);
+            tag.addBodyContent( String.valueOf(_offset) );
+            args.addBodyContent(tag);
+        }
+        if (_length >= 0)
+        {
+            tag = new XmlTag("length", args);
+            tag.addBodyContent( String.valueOf(_length) );
+            args.addBodyContent(tag);
+        }
+        if (_tailBytes >= 0)
+        {
+            tag = new XmlTag("tail_bytes", args);
+            tag.addBodyContent( String.valueOf(_tailBytes) );
+            args.addBodyContent(tag);
+        }
+        if (_tailLines >= 0)
+        {
+            tag = new XmlTag("tail_lines", args);
+            tag.addBodyContent( String.valueOf(_tailLines) );
+            args.addBodyContent(tag);
+        }
+        if ( !TEXT.equals(_encoding) )
+        {
+            tag = new XmlTag("encoding", args);
+            tag.addBodyContent(_encoding);
+            args.addBodyContent(tag);
+        }
         return doc;
     }
 }
\ No newline at end of file
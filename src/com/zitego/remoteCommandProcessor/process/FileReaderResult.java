@@ -17,6 +17,10 @@ import java.util.Vector;
 public class FileReaderResult extends CommandProcessorResult
 {
     private String _content;
+    private byte[] _data;
+    private long _offset = 0;
+    private long _fileSize = -1;
+    private long _lastModified = -1;
 
     /**
      * Creates a new FileReader result.
@@ -46,19 +50,133 @@ public class FileReaderResult extends CommandProcessorResult
 
     public String getContent()
     {
+        if (_content == null && _data != null) return new String(_data);
         return _content;
     }
 
+    /**
+     * Sets the raw file content. The content is sent base64 encoded.
+     *
+     * @param data The file content.
+     */
+    public void setBytes(byte[] data)
+    {
+        _data = data;
+    }
+
+    /**
+     * Returns the raw file content.
+     *
+     * @return byte[]
+     */
+    public byte[] getBytes()
+    {
+        if (_data == null && _content != null) return _content.getBytes();
+        return _data;
+    }
+
+    /**
+     * Sets the offset the content was read from and the total size of the file.
+     *
+     * @param offset The offset.
+     * @param fileSize The file size.
+     */
+    public void setRange(long offset, long fileSize)
+    {
+        _offset = offset;
+        _fileSize = fileSize;
+    }
+
+    /**
+     * Returns the offset in the file that the content was read from.
+     *
+     * @return long
+     */
+    public long getOffset()
+    {
+        return _offset;
+    }
+
+    /**
+     * Returns the total size of the file or -1 if it was not returned.
+     *
+     * @return long
+     */
+    public long getFileSize()
+    {
+        return _fileSize;
+    }
+
+    /**
+     * Sets the last modified time of the file.
+     *
+     * @param lastModified The last modified time in milliseconds.
+     */
+    public void setLastModified(long lastModified)
+    {
+        _lastModified = lastModified;
+    }
+
+    /**
+     * Returns the last modified time of the file or -1 if it was not returned.
+     *
+     * @return long
+     */
+    public long getLastModified()
+    {
+        return _lastModified;
+    }
+
+    /**
+     * Returns the offset just past the content that was read. Passing this as the offset of the
+     * next read returns only what has been written to the file since. If the file size drops below
+     * this offset, the file has been truncated or rotated and should be read again from the start.
+     * Polling should use base64 encoding so the byte count is exact.
+     *
+     * @return long
+     */
+    public long getNextOffset()
+    {
+        byte[] data = getBytes();
+        return _offset + (data != null ? data.length : 0);
+    }
+
     protected XmlTag getDetails()
     {
         XmlTag ret = new XmlTag("content");
-        CData content = new CData( ret, _content.replaceAll("\\]\\]>", "]]&gt;") );
+        if (_fileSize > -1)
+        {
+            ret.setAttribute( "offset", String.valueOf(_offset) );
+            ret.setAttribute( "file_size", String.valueOf(_fileSize) );
+        }
+        if (_lastModified > -1) ret.setAttribute( "last_modified", String.valueOf(_lastModified) );
+        if (_data != null)
+        {
+            ret.setAttribute("encoding", FileReader.BASE64);
+            ret.addBodyContent( Base64.encode(_data) );
+        }
+        else if (_content != null)
+        {
+            CData content = new CData( ret, _content.replaceAll("\\]\\]>", "]]&gt;") );
+        }
         return ret;
     }
 
     public void deserialize(XmlTag tag)
     {
         if (tag == null) return;
-        _content = tag.getChildValue("content");
+        XmlTag content = tag.getFirstOccurrenceOf("content");
+        if (content == null) return;
+        if ( FileReader.BASE64.equals(content.getTagAttribute("encoding")) ) _data = Base64.decode( content.getValue() );
+        else _content = content.getValue();
+        String val = content.getTagAttribute("file_size");
+        if (val != null)
+        {
+            _fileSize = Long.parseLong(val);
+            val = content.getTagAttribute("offset");
+            if (val != null) _offset = Long.parseLong(val);
+        }
+        val = content.getTagAttribute("last_modified");
+        if (val != null) _lastModified = Long.parseLong(val);
     }
 }
\ No newline at end of file
@@ -1,13 +1,22 @@
 package com.zitego.remoteCommandProcessor.process;
 
 import com.zitego.remoteCommandProcessor.CommandProcessor;
+import com.zitego.remoteCommandProcessor.CommandProcessorDocument;
 import com.zitego.remoteCommandProcessor.ProcessorArguments;
 import com.zitego.remoteCommandProcessor.CommandProcessorResult;
 import com.zitego.remoteCommandProcessor.CommandProcessorException;
 import com.zitego.markup.xml.XmlTag;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.BufferedWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Vector;
 
 /**
@@ -27,13 +36,48 @@ import java.util.Vector;
  * </processor-arguments>
  * </xmp>
  *
+ * Large files can instead be uploaded in chunks. Each chunk is base64 encoded and written at its offset into
+ * a temporary file next to the (first) target file. A chunk at offset 0 starts a new upload. Once every chunk
+ * has been sent, a finalize entity with the md5 checksum of the whole file is sent (it can accompany the last
+ * chunk). The checksum is verified and the temporary file is renamed over the target so that readers never
+ * see a partially written file. RemoteFileOutputStream handles this from the client side. The xml for a
+ * chunk should look as follows:<br>
+ * <xmp>
+ * <processor-arguments>
+ *  <chunk offset="0">[base64 encoded bytes]</chunk>
+ *  <finalize checksum="[md5 hex]">true</finalize> (only on the last request)
+ *  <file>/<some_directory_path/<filename></file>
+ *  ...
+ * </processor-arguments>
+ * </xmp>
+ *
+ * Content is written over each target file in place, so symbolic links, hard links, and the file's mode and
+ * owner are kept as they were. A chunked upload is instead renamed into place when it is finalized, and so are
+ * the clones of it into the other targets. When there is more than one target, the content is written once to
+ * the first target and then cloned into the rest. By default the clone is a kernel side copy with
+ * FileChannel.transferTo. A clone_mode of hardlink links the targets to the same inode instead (falling back
+ * to a copy across filesystems), which always replaces the target, and reflink makes a copy on write clone on
+ * filesystems that support it (falling back to a copy otherwise):<br>
+ * <xmp>
+ *  <clone_mode>hardlink</clone_mode> (optional, copy, hardlink, or reflink, default is copy)
+ * </xmp>
+ * The result is a FileWriterResult with the number of bytes, time taken, and method used for each target.
+ *
  * @author John Glorioso
  * @version $Id: FileWriter.java,v 1.2 2008/04/14 20:21:15 jglorioso Exp $
  */
 public class FileWriter extends CommandProcessor
 {
+    public static final String COPY = "copy";
+    public static final String HARDLINK = "hardlink";
+    public static final String REFLINK = "reflink";
     private String _content;
     private Vector _files = new Vector();
+    private byte[] _chunk;
+    private long _chunkOffset = -1;
+    private boolean _finalize = false;
+    private String _checksum;
+    private String _cloneMode = COPY;
 
     public static void main(String[] a) throws Exception
     {
@@ -63,6 +107,7 @@ public class FileWriter extends CommandProcessor
 
     /**
      * The processor arguments should a content argument as well as one or more file arguments.
+     * For a chunked upload, a chunk and/or finalize argument is given instead of the content.
      *
      * @param args The processor arguments.
      */
@@ -76,29 +121,456 @@ public class FileWriter extends CommandProcessor
             XmlTag tag = (XmlTag)files.get(i);
             _files.add( tag.getValue() );
         }
+
+        XmlTag chunk = args.getFirstOccurrenceOf("chunk");
+        if (chunk != null)
+        {
+            String offset = chunk.getTagAttribute("offset");
+            try
+            {
+                _chunkOffset = (offset != null ? Long.parseLong(offset) : 0);
+                _chunk = Base64.decode( chunk.getValue() );
+            }
+            catch (NumberFormatException nfe)
+            {
+                throw new CommandProcessorException("Invalid offset for <chunk>: "+offset);
+            }
+            catch (IllegalArgumentException iae)
+            {
+                throw new CommandProcessorException("Invalid <chunk> content: "+iae.getMessage());
+            }
+        }
+        XmlTag finalize = args.getFirstOccurrenceOf("finalize");
+        if (finalize != null)
+        {
+            _finalize = new Boolean( finalize.getValue() ).booleanValue();
+            _checksum = finalize.getTagAttribute("checksum");
+        }
+        String mode = args.getChildValue("clone_mode");
+        if (mode != null)
+        {
+            try
+            {
+                setCloneMode( mode.toLowerCase() );
+            }
+            catch (IllegalArgumentException iae)
+            {
+                throw new CommandProcessorException( iae.getMessage() );
+            }
+        }
+        if (_files.size() == 0) throw new CommandProcessorException("At least one <file> tag is required");
+        if (_content == null && _chunk == null && !_finalize) throw new CommandProcessorException("<content>, <chunk>, or <finalize> is required");
+    }
+
+    /**
+     * Adds a file to be written.
+     *
+     * @param file The absolute path of the file.
+     */
+    public void addFile(String file)
+    {
+        if (file != null) _files.add(file);
+    }
+
+    /**
+     * Sets the text content to be written.
+     *
+     * @param content The content.
+     */
+    public void setContent(String content)
+    {
+        _content = content;
+    }
+
+    /**
+     * Sets a chunk of a chunked upload.
+     *
+     * @param data The data.
+     * @param off The offset into the data.
+     * @param len The number of bytes of the data to send.
+     * @param offset The offset in the target file that the chunk belongs at.
+     */
+    public void setChunk(byte[] data, int off, int len, long offset)
+    {
+        _chunk = new byte[len];
+        System.arraycopy(data, off, _chunk, 0, len);
+        _chunkOffset = offset;
+    }
+
+    /**
+     * Marks this request as the end of a chunked upload. The checksum is the md5 hex digest of the
+     * entire file and can be null to skip verification.
+     *
+     * @param checksum The md5 checksum.
+     */
+    public void setFinalize(String checksum)
+    {
+        _finalize = true;
+        _checksum = checksum;
+    }
+
+    /**
+     * Sets how the content is cloned into the second and later target files. Either COPY, HARDLINK, or REFLINK.
+     *
+     * @param mode The clone mode.
+     * @throws IllegalArgumentException if the mode is not supported.
+     */
+    public void setCloneMode(String mode) throws IllegalArgumentException
+    {
+        if ( !COPY.equals(mode) && !HARDLINK.equals(mode) && !REFLINK.equals(mode) ) throw new IllegalArgumentException("Invalid clone mode: "+mode);
+        _cloneMode = mode;
     }
 
     public CommandProcessorResult execute()
     {
-        CommandProcessorResult ret = null;
+        FileWriterResult ret = new FileWriterResult();
         try
         {
-            int size = _files.size();
-            for (int i=0; i<size; i++)
+            if (_chunk != null || _finalize)
             {
-                PrintWriter out = new PrintWriter( new BufferedWriter(new java.io.FileWriter((String)_files.get(i))) );
-                out.write( _content, 0, _content.length() );
-                out.flush();
-                out.close();
+                File upload = getUploadFile( new File((String)_files.get(0)) );
+                if (_chunk != null) writeChunk(upload);
+                if (_finalize) finalizeUpload(upload, ret);
+            }
+            else
+            {
+                long start = System.currentTimeMillis();
+                File target = new File( (String)_files.get(0) );
+                byte[] data = _content.getBytes();
+                OutputStream out = new FileOutputStream(target);
+                try
+                {
+                    out.write(data);
+                }
+                finally
+                {
+                    out.close();
+                }
+                ret.addTarget( target.getPath(), data.length, System.currentTimeMillis()-start, "write" );
+                cloneToTargets(target, ret, false);
             }
-            ret = new CommandProcessorResult(CommandProcessorResult.SUCCESS);
         }
         catch (IOException ioe)
         {
-            ret = new CommandProcessorResult(CommandProcessorResult.FAILURE);
+            ret.setType(CommandProcessorResult.FAILURE);
             ret.setReason( ioe.getMessage() );
             ret.setStackTrace(ioe);
         }
         return ret;
     }
+
+    /**
+     * Writes the chunk into the upload file at its offset. A chunk at offset 0 truncates any previous upload.
+     *
+     * @param upload The upload file.
+     * @throws IOException if an error occurs.
+     */
+    private void writeChunk(File upload) throws IOException
+    {
+        RandomAccessFile out = new RandomAccessFile(upload, "rw");
+        try
+        {
+            FileChannel channel = out.getChannel();
+            if (_chunkOffset == 0) channel.truncate(0);
+            else if ( _chunkOffset > channel.size() ) throw new IOException("Chunk offset "+_chunkOffset+" is past the end of the upload ("+channel.size()+" bytes)");
+            ByteBuffer buf = ByteBuffer.wrap(_chunk);
+            long pos = _chunkOffset;
+            while ( buf.hasRemaining() )
+            {
+                pos += channel.write(buf, pos);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Verifies the checksum of the upload file and renames it over the target files.
+     *
+     * @param upload The upload file.
+     * @throws IOException if the upload does not exist, the checksum does not match, or the rename fails.
+     */
+    private void finalizeUpload(File upload, FileWriterResult ret) throws IOException
+    {
+        if ( !upload.exists() ) throw new IOException("No upload in progress for "+_files.get(0));
+        if (_checksum != null)
+        {
+            String checksum = md5(upload);
+            if ( !checksum.equalsIgnoreCase(_checksum) )
+            {
+                upload.delete();
+                throw new IOException("Checksum mismatch for "+_files.get(0)+": expected "+_checksum+", got "+checksum);
+            }
+        }
+        long start = System.currentTimeMillis();
+        File target = new File( (String)_files.get(0) );
+        replace(upload, target);
+        ret.addTarget( target.getPath(), target.length(), System.currentTimeMillis()-start, "upload" );
+        cloneToTargets(target, ret, true);
+    }
+
+    /**
+     * Clones the already written first target into the rest of the targets. When atomic is true, each clone is
+     * made in a temporary file and renamed over the target, otherwise the target is written in place. Hard
+     * links always replace the target this way.
+     *
+     * @param src The first target.
+     * @param ret The result to add each target to.
+     * @param atomic Whether to rename each clone into place.
+     * @throws IOException if an error occurs.
+     */
+    private void cloneToTargets(File src, FileWriterResult ret, boolean atomic) throws IOException
+    {
+        int size = _files.size();
+        for (int i=1; i<size; i++)
+        {
+            long start = System.currentTimeMillis();
+            File target = new File( (String)_files.get(i) );
+            if ( !atomic && !HARDLINK.equals(_cloneMode) )
+            {
+                String method = clone(src, target);
+                ret.addTarget( target.getPath(), src.length(), System.currentTimeMillis()-start, method );
+                continue;
+            }
+            File tmp = createTempFile(target);
+            try
+            {
+                String method = clone(src, tmp);
+                replace(tmp, target);
+                ret.addTarget( target.getPath(), src.length(), System.currentTimeMillis()-start, method );
+            }
+            finally
+            {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Clones the source file into the destination according to the clone mode and returns the method
+     * that was actually used. Links and reflinks fall back to a copy if the filesystem refuses them, and the
+     * reason they were refused is printed.
+     *
+     * @param src The source file.
+     * @param dest The destination file.
+     * @return String
+     * @throws IOException if an error occurs.
+     */
+    private String clone(File src, File dest) throws IOException
+    {
+        try
+        {
+            if ( HARDLINK.equals(_cloneMode) )
+            {
+                dest.delete();
+                exec( new String[] { "ln", src.getAbsolutePath(), dest.getAbsolutePath() } );
+                return HARDLINK;
+            }
+            else if ( REFLINK.equals(_cloneMode) )
+            {
+                exec( new String[] { "cp", "--reflink=always", src.getAbsolutePath(), dest.getAbsolutePath() } );
+                return REFLINK;
+            }
+        }
+        catch (IOException ioe)
+        {
+            System.out.println( "Could not "+_cloneMode+" "+src+" to "+dest+", copying instead: "+ioe.getMessage().trim() );
+        }
+        copy(src, dest);
+        return COPY;
+    }
+
+    /**
+     * Runs the given command and waits for it to finish. The process streams are closed afterward.
+     *
+     * @param cmd The command.
+     * @throws IOException if the command cannot be run or exits with an error.
+     */
+    private void exec(String[] cmd) throws IOException
+    {
+        Process p = Runtime.getRuntime().exec(cmd);
+        try
+        {
+            p.waitFor();
+            if ( p.exitValue() != 0) throw new IOException( getProcessError(p) );
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted running "+cmd[0]);
+        }
+        finally
+        {
+            p.getOutputStream().close();
+            p.getInputStream().close();
+            p.getErrorStream().close();
+        }
+    }
+
+    /**
+     * Returns the temporary file that chunks for the given target are written to. It lives in the same
+     * directory as the target so the final rename is atomic.
+     *
+     * @param target The target file.
+     * @return File
+     */
+    static File getUploadFile(File target)
+    {
+        return new File( target.getAbsoluteFile().getParentFile(), "." + target.getName() + ".upload" );
+    }
+
+    /**
+     * Creates a temporary file in the same directory as the target.
+     *
+     * @param target The target file.
+     * @return File
+     * @throws IOException if the file cannot be created.
+     */
+    static File createTempFile(File target) throws IOException
+    {
+        return File.createTempFile( "." + target.getName() + ".", ".tmp", target.getAbsoluteFile().getParentFile() );
+    }
+
+    /**
+     * Renames the source file over the target. On filesystems where a rename cannot replace an
+     * existing file, the target is removed first.
+     *
+     * @param src The source file.
+     * @param target The target file.
+     * @throws IOException if the rename fails.
+     */
+    static void replace(File src, File target) throws IOException
+    {
+        if ( src.renameTo(target) ) return;
+        if ( target.exists() && target.delete() && src.renameTo(target) ) return;
+        throw new IOException("Could not rename "+src+" to "+target);
+    }
+
+    private static void copy(File src, File dest) throws IOException
+    {
+        FileChannel in = new FileInputStream(src).getChannel();
+        try
+        {
+            FileChannel out = new FileOutputStream(dest).getChannel();
+            try
+            {
+                long size = in.size();
+                long pos = 0;
+                while (pos < size)
+                {
+                    pos += in.transferTo(pos, size-pos, out);
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the md5 hex digest of the given file.
+     *
+     * @param file The file.
+     * @return String
+     * @throws IOException if an error occurs.
+     */
+    static String md5(File file) throws IOException
+    {
+        MessageDigest md = newDigest();
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            byte[] buf = new byte[65536];
+            int read = 0;
+            while ( (read=in.read(buf)) != -1 ) md.update(buf, 0, read);
+        }
+        finally
+        {
+            in.close();
+        }
+        return toHex( md.digest() );
+    }
+
+    /**
+     * Returns a new md5 message digest.
+     *
+     * @return MessageDigest
+     */
+    static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException nsae)
+        {
+            throw new RuntimeException("MD5 is not available", nsae);
+        }
+    }
+
+    /**
+     * Returns the bytes as a lower case hex string.
+     *
+     * @param bytes The bytes.
+     * @return String
+     */
+    static String toHex(byte[] bytes)
+    {
+        StringBuffer ret = new StringBuffer();
+        for (int i=0; i<bytes.length; i++)
+        {
+            String hex = Integer.toHexString(bytes[i] & 0xff);
+            if (hex.length() == 1) ret.append("0");
+            ret.append(hex);
+        }
+        return ret.toString();
+    }
+
+    public CommandProcessorDocument createDocument()
+    {
+        CommandProcessorDocument doc = super.createDocument();
+        ProcessorArguments args = doc.getProcessorArguments();
+        XmlTag tag = null;
+        if (_content != null)
+        {
+            tag = new XmlTag("content", args);
+            tag.addBodyContent(_content);
+            args.addBodyContent(tag);
+        }
+        if (_chunk != null)
+        {
+            tag = new XmlTag("chunk", args);
+            tag.setAttribute( "offset", String.valueOf(_chunkOffset) );
+            tag.addBodyContent( Base64.encode(_chunk) );
+            args.addBodyContent(tag);
+        }
+        if ( !COPY.equals(_cloneMode) )
+        {
+            tag = new XmlTag("clone_mode", args);
+            tag.addBodyContent(_cloneMode);
+            args.addBodyContent(tag);
+        }
+        if (_finalize)
+        {
+            tag = new XmlTag("finalize", args);
+            if (_checksum != null) tag.setAttribute("checksum", _checksum);
+            tag.addBodyContent("true");
+            args.addBodyContent(tag);
+        }
+        int size = _files.size();
+        for (int i=0; i<size; i++)
+        {
+            tag = new XmlTag("file", args);
+            tag.addBodyContent( (String)_files.get(i) );
+            args.addBodyContent(tag);
+        }
+        return doc;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,111 @@
+package com.zitego.remoteCommandProcessor.process;
+
+import com.zitego.remoteCommandProcessor.CommandProcessorResult;
+import com.zitego.markup.xml.XmlTag;
+import java.util.Vector;
+
+/**
+ * An extension of the command processor result to contain what was written to each target file.
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+public class FileWriterResult extends CommandProcessorResult
+{
+    private Vector<Target> _targets = new Vector<Target>();
+
+    /**
+     * Creates a new FileWriter result.
+     */
+    public FileWriterResult()
+    {
+        super(SUCCESS);
+    }
+
+    /**
+     * Creates a new FileWriter result given the result type.
+     */
+    public FileWriterResult(int type)
+    {
+        this();
+        setType(type);
+    }
+
+    /**
+     * Adds a target file that was written.
+     *
+     * @param path The file path.
+     * @param bytes The number of bytes in the file.
+     * @param time The time in milliseconds it took to write the file.
+     * @param method How the file was written (write, upload, copy, hardlink, or reflink).
+     */
+    public void addTarget(String path, long bytes, long time, String method)
+    {
+        if (path != null) _targets.add( new Target(path, bytes, time, method) );
+    }
+
+    /**
+     * Returns the target files in the order they were written.
+     *
+     * @return Vector<Target>
+     */
+    public Vector<Target> getTargets()
+    {
+        return _targets;
+    }
+
+    protected XmlTag getDetails()
+    {
+        XmlTag ret = new XmlTag("targets");
+        int size = _targets.size();
+        for (int i=0; i<size; i++)
+        {
+            Target target = _targets.get(i);
+            XmlTag tag = new XmlTag("target", ret);
+            tag.setAttribute( "bytes", String.valueOf(target.bytes) );
+            tag.setAttribute( "time", String.valueOf(target.time) );
+            if (target.method != null) tag.setAttribute("method", target.method);
+            tag.addBodyContent(target.path);
+        }
+        return ret;
+    }
+
+    public void deserialize(XmlTag tag)
+    {
+        if (tag == null) return;
+
+        XmlTag targets = tag.getFirstOccurrenceOf("targets");
+        if (targets != null)
+        {
+            Vector<XmlTag> children = (Vector<XmlTag>)targets.getChildrenWithName("target");
+            int size = children.size();
+            for (int i=0; i<size; i++)
+            {
+                XmlTag target = children.get(i);
+                addTarget
+                (
+                    target.getValue(),
+                    Long.parseLong( target.getTagAttribute("bytes") ),
+                    Long.parseLong( target.getTagAttribute("time") ),
+                    target.getTagAttribute("method")
+                );
+            }
+        }
+    }
+
+    public static class Target
+    {
+        public String path;
+        public long bytes;
+        public long time;
+        public String method;
+
+        public Target(String path, long bytes, long time, String method)
+        {
+            this.path = path;
+            this.bytes = bytes;
+            this.time = time;
+            this.method = method;
+        }
+    }
+}
\ No newline at end of file
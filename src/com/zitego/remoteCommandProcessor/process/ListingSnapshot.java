@@ -0,0 +1,193 @@
+package com.zitego.remoteCommandProcessor.process;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A snapshot of a directory listing that later listings of the same directory can be compared against.
+ * The most recent versions of each listing (the directory, depth, and filters) are kept in memory, and the
+ * token handed to the client names a version. When the client lists the directory again with a token for
+ * one of the kept versions, only the differences from it are returned. If the listing has not changed since
+ * the latest version, the version and token stay the same. Keeping several versions means that when a
+ * directory changes, clients polling it with the token of an earlier version still get only changes.<br>
+ * <br>
+ * The number of versions kept per listing is set with the rcp.file_lister.max_versions system property
+ * (default 4) and the oldest is discarded first. The number of listings kept is set with the
+ * rcp.file_lister.max_snapshots system property (default 32) and the least recently used listing is
+ * discarded first. A token for a discarded version or listing, or one issued before a restart, is simply
+ * not matched and the client gets a full listing instead.
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+class ListingSnapshot
+{
+    private static final String PREFIX = Long.toString( System.currentTimeMillis(), 36 ) + "-";
+    private static AtomicLong _sequence = new AtomicLong();
+    private static int _maxSnapshots = Integer.getInteger("rcp.file_lister.max_snapshots", 32).intValue();
+    private static int _maxVersions = Integer.getInteger("rcp.file_lister.max_versions", 4).intValue();
+    private static Map<String, Versions> _snapshots = new LinkedHashMap<String, Versions>(16, 0.75f, true)
+    {
+        protected boolean removeEldestEntry(Map.Entry<String, Versions> eldest)
+        {
+            return size() > _maxSnapshots;
+        }
+    };
+    private String _key;
+    private String _token;
+    private String[] _names;
+    private long[] _lastModified;
+    private long[] _sizes;
+
+    /**
+     * Creates a snapshot of the given entries.
+     *
+     * @param key Identifies what was listed (directory, depth, and filters).
+     * @param entries The entries.
+     */
+    ListingSnapshot(String key, List<DirectoryWalker.Entry> entries)
+    {
+        _key = key;
+        DirectoryWalker.Entry[] sorted = entries.toArray( new DirectoryWalker.Entry[entries.size()] );
+        Arrays.sort
+        (
+            sorted,
+            new Comparator<DirectoryWalker.Entry>()
+            {
+                public int compare(DirectoryWalker.Entry e1, DirectoryWalker.Entry e2)
+                {
+                    return e1.path.compareTo(e2.path);
+                }
+            }
+        );
+        _names = new String[sorted.length];
+        _lastModified = new long[sorted.length];
+        _sizes = new long[sorted.length];
+        for (int i=0; i<sorted.length; i++)
+        {
+            _names[i] = sorted[i].path;
+            _lastModified[i] = sorted[i].lastModified;
+            _sizes[i] = sorted[i].size;
+        }
+    }
+
+    /**
+     * Stores the snapshot as the latest version of its listing and returns the token for it. If the
+     * listing has not changed since the latest version, that version is kept and its token returned.
+     *
+     * @param snapshot The snapshot.
+     * @return String
+     */
+    static String save(ListingSnapshot snapshot)
+    {
+        synchronized (_snapshots)
+        {
+            Versions versions = _snapshots.get(snapshot._key);
+            if (versions == null)
+            {
+                versions = new Versions();
+                _snapshots.put(snapshot._key, versions);
+            }
+            if ( versions.latest != null && versions.latest.hasSameEntries(snapshot) ) return versions.latest._token;
+            snapshot._token = PREFIX + _sequence.incrementAndGet();
+            versions.put(snapshot._token, snapshot);
+            versions.latest = snapshot;
+            return snapshot._token;
+        }
+    }
+
+    /**
+     * Returns the version of the listing with the given key that the token is for or null if it is not kept.
+     *
+     * @param token The token.
+     * @param key The key.
+     * @return ListingSnapshot
+     */
+    static ListingSnapshot get(String token, String key)
+    {
+        if (token == null) return null;
+        synchronized (_snapshots)
+        {
+            Versions versions = _snapshots.get(key);
+            return (versions != null ? versions.get(token) : null);
+        }
+    }
+
+    private boolean hasSameEntries(ListingSnapshot other)
+    {
+        return Arrays.equals(_names, other._names) && Arrays.equals(_lastModified, other._lastModified) &&
+               Arrays.equals(_sizes, other._sizes);
+    }
+
+    /**
+     * Adds every entry in this snapshot to the result.
+     *
+     * @param result The result.
+     * @param dir The directory the entries belong to in the result.
+     */
+    void addAll(FileListerResult result, String dir)
+    {
+        for (int i=0; i<_names.length; i++)
+        {
+            result.addResult( dir, _names[i], _lastModified[i], _sizes[i] );
+        }
+    }
+
+    /**
+     * Adds the entries that were added or modified since the given snapshot to the result along with the
+     * entries that were deleted.
+     *
+     * @param previous The earlier snapshot.
+     * @param result The result.
+     * @param dir The directory the entries belong to in the result.
+     */
+    void addChanges(ListingSnapshot previous, FileListerResult result, String dir)
+    {
+        int i = 0;
+        int j = 0;
+        while (i < _names.length || j < previous._names.length)
+        {
+            int cmp;
+            if (i == _names.length) cmp = 1;
+            else if (j == previous._names.length) cmp = -1;
+            else cmp = _names[i].compareTo(previous._names[j]);
+
+            if (cmp < 0)
+            {
+                result.addResult( dir, _names[i], _lastModified[i], _sizes[i] );
+                i++;
+            }
+            else if (cmp > 0)
+            {
+                result.addDeleted(dir, previous._names[j]);
+                j++;
+            }
+            else
+            {
+                if (_lastModified[i] != previous._lastModified[j] || _sizes[i] != previous._sizes[j])
+                {
+                    result.addResult( dir, _names[i], _lastModified[i], _sizes[i] );
+                }
+                i++;
+                j++;
+            }
+        }
+    }
+
+    /**
+     * The kept versions of a listing by token, oldest first.
+     */
+    private static class Versions extends LinkedHashMap<String, ListingSnapshot>
+    {
+        private ListingSnapshot latest;
+
+        protected boolean removeEldestEntry(Map.Entry<String, ListingSnapshot> eldest)
+        {
+            return size() > _maxVersions;
+        }
+    }
+}
\ No newline at end of file
@@ -5,21 +5,28 @@ import com.zitego.remoteCommandProcessor.ProcessorArguments;
 import com.zitego.remoteCommandProcessor.CommandProcessorResult;
 import com.zitego.remoteCommandProcessor.CommandProcessorException;
 import com.zitego.markup.xml.XmlTag;
-import com.zitego.filemanager.explorer.Explorer;
-import com.zitego.filemanager.FileListing;
-import com.zitego.filemanager.FileSystemObject;
-import com.zitego.filemanager.Directory;
 import com.zitego.sql.DBHandle;
-import com.zitego.sql.DBHandleFactory;
 import com.zitego.sql.DBConfig;
-import com.zitego.util.ImageUtils;
 import java.io.IOException;
 import java.io.File;
 import java.util.StringTokenizer;
+import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedList;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
 import java.sql.Types;
 
 /**
@@ -36,15 +43,51 @@ import java.sql.Types;
  *  <debug>true</debug> (default is false)
  *  <home_dir>/home/httpd/domains/wave/wave_4</home_dir>
  *  <create_thumbnails>true</create_thumbnails>
+ *  <force_thumbnails>true</force_thumbnails> (default is false)
  *  <thumbnail_width>150</thumbnail_width> (default is 100)
+ *  <thumbnail_queue_size>32</thumbnail_queue_size> (default is twice the number of processors)
  *  <include_subdirs>true</include_subdirs> (default is false)
  *  <category_id>16</category_id> (optional)
+ *  <batch_size>500</batch_size> (default is 100)
+ *  <journal>/tmp/photos.journal</journal> (optional)
+ *  <resume>false</resume> (default is true)
  *  <directory>images/photos</directory>
  *  <directory>images2/photos2</directory>
  *  ...
  * </processor-arguments>
  * </xmp>
  *
+ * Thumbnails are created on a shared pool with one thread per processor. Photos are inserted in the order
+ * they are listed as their thumbnails finish, and no more than thumbnail_queue_size photos are waiting to be
+ * inserted at once, which bounds the number of images held in memory. The result is a PhotoLoaderResult
+ * with the number of photos loaded and how long it took.<br>
+ * <br>
+ * The directories are walked by a PhotoWalker on its own thread, which lists one directory at a time in name
+ * order and passes the photos it finds through a bounded queue. Walking overlaps with creating thumbnails
+ * and memory stays flat no matter how many files a gallery has.<br>
+ * <br>
+ * Thumbnails are made by Thumbnailer, which has the image reader subsample large images while decoding so
+ * only about twice the pixels the thumbnail needs are held in memory.<br>
+ * <br>
+ * Each thumbs directory has an index of the source size, last modified time, and width its thumbnails were
+ * created from. A thumbnail that exists and still matches its image is not created again unless
+ * force_thumbnails is true, so reloading a gallery only scales the images that changed.<br>
+ * <br>
+ * Photos are inserted with one prepared statement in batches of batch_size rows. The connection is opened
+ * with rewriteBatchedStatements so the driver sends each batch as one multi-row insert rather than a
+ * statement per row, and each batch is committed as a transaction. When there is a category, the paths of
+ * the photos already in it and its next order id are read once at the start, and photos with those paths
+ * are skipped without touching the database.
+ * One connection is used for the whole load. It is taken from the default DBHandlePool, keyed by the host,
+ * site id, and username, and returned to it afterward so the next load for the site reuses it.<br>
+ * <br>
+ * After each batch is committed a checkpoint of the last photo committed in each directory is written to a
+ * journal. If the load fails, running it again resumes from the checkpoint and skips the photos that sort at
+ * or before it without walking their thumbnails or the database. The journal is deleted when the load
+ * finishes. It defaults to a file in the java.io.tmpdir directory named for a digest of the load, so it is
+ * kept out of the web site and holds no credentials, and resume can be set to false to start over. The
+ * result includes the time spent walking directories, waiting on thumbnails, and inserting.<br>
+ * <br>
  * Note: FileCopier supports copying directories.
  *
  * @author John Glorioso
@@ -59,14 +102,47 @@ public class PhotoLoader extends CommandProcessor
         ALLOWED_TYPES.put("gif", "1");
         ALLOWED_TYPES.put("png", "1");
     }
+    /** The least number of photos the walker can get ahead of the loader. */
+    private static final int WALK_QUEUE_SIZE = 256;
+    private static ExecutorService _thumbnailPool = Executors.newFixedThreadPool
+    (
+        Runtime.getRuntime().availableProcessors(),
+        new ThreadFactory()
+        {
+            private AtomicInteger _count = new AtomicInteger();
+
+            public Thread newThread(Runnable r)
+            {
+                Thread ret = new Thread( r, "rcp-thumbnail-" + _count.incrementAndGet() );
+                ret.setDaemon(true);
+                return ret;
+            }
+        }
+    );
+    private DBConfig _dbConfig;
+    private String _dbKey;
+    private String _database;
     private DBHandle _db;
-    private Explorer _homeDir;
+    private File _homeDir;
     private boolean _createThumbs = false;
+    private boolean _forceThumbs = false;
     private int _thumbWidth = 100;
     private boolean _loadSubDir = false;
     private long _categoryId = -1L;
-    private Vector _directories = new Vector();
+    private Vector<String> _directories = new Vector<String>();
     private boolean _debug = false;
+    private int _thumbQueueSize = Runtime.getRuntime().availableProcessors() * 2;
+    private LinkedList<PendingPhoto> _pending = new LinkedList<PendingPhoto>();
+    private PhotoLoaderResult _result;
+    private Hashtable<String, ThumbnailIndex> _thumbIndexes = new Hashtable<String, ThumbnailIndex>();
+    private int _batchSize = 100;
+    private PreparedStatement _insert;
+    private Vector<BatchEntry> _batch = new Vector<BatchEntry>();
+    private long _nextOrderId = 1;
+    private HashSet<String> _existingPaths = new HashSet<String>();
+    private File _journalFile;
+    private boolean _resume = true;
+    private PhotoLoaderJournal _journal;
 
     public static void main(String[] a) throws Exception
     {
@@ -94,9 +170,14 @@ public class PhotoLoader extends CommandProcessor
      * <ul>
      *  <li>home_dir - The home directory for the wave site.
      *  <li>create_thumbnails - A true/false flag on whether to create thumbnails.
+     *  <li>force_thumbnails - A true/false flag on whether to recreate thumbnails that are current.
      *  <li>thumbnail_width - The thumbnail width. 100 pixels is the default.
+     *  <li>thumbnail_queue_size - The most photos to have waiting on thumbnails at once.
      *  <li>include_subdirs - A true/false flag on whether to include sub directories.
      *  <li>category_id - The photo category.
+     *  <li>batch_size - The number of photos to insert per batch. 100 is the default.
+     *  <li>journal - The checkpoint journal. The default is a file in java.io.tmpdir named for the load.
+     *  <li>resume - A true/false flag on whether to resume from the journal. True is the default.
      * </ul>
      *
      * @param args The processor arguments.
@@ -115,15 +196,15 @@ public class PhotoLoader extends CommandProcessor
         if (password == null) throw new CommandProcessorException("<password> is required in db_config element");
         try
         {
-            _db = DBHandleFactory.getDBHandle
+            _dbConfig = new DBConfig
             (
-                new DBConfig
-                (
-                    "jdbc:mysql://" + host + ":3306/wave_" + id,
-                    (java.sql.Driver)Class.forName("com.mysql.jdbc.Driver").newInstance(),
-                    username, password, DBConfig.MYSQL
-                )
+                //Without this Connector/J sends one insert per row of a batch
+                "jdbc:mysql://" + host + ":3306/wave_" + id + "?rewriteBatchedStatements=true",
+                (java.sql.Driver)Class.forName("com.mysql.jdbc.Driver").newInstance(),
+                username, password, DBConfig.MYSQL
             );
+            _database = host + "/wave_" + id;
+            _dbKey = _database + "/" + username + "/" + password.hashCode();
         }
         catch (Exception e)
         {
@@ -135,17 +216,13 @@ public class PhotoLoader extends CommandProcessor
 
         val = args.getChildValue("home_dir");
         if (val == null) throw new CommandProcessorException("<home_dir> is required");
-        try
-        {
-            _homeDir = new Explorer(val);
-        }
-        catch (IOException ioe)
-        {
-            throw new CommandProcessorException("Could not create explorer with home directory: "+val);
-        }
+        _homeDir = new File(val);
+        if ( !_homeDir.isDirectory() ) throw new CommandProcessorException("Invalid home directory: "+val);
 
         val = args.getChildValue("create_thumbnails");
         if (val != null) _createThumbs = new Boolean(val).booleanValue();
+        val = args.getChildValue("force_thumbnails");
+        if (val != null) _forceThumbs = new Boolean(val).booleanValue();
         val = args.getChildValue("thumbnail_width");
         if (val != null)
         {
@@ -158,6 +235,19 @@ public class PhotoLoader extends CommandProcessor
                 throw new CommandProcessorException("Invalid value for <thumbnail_width>: "+val);
             }
         }
+        val = args.getChildValue("thumbnail_queue_size");
+        if (val != null)
+        {
+            try
+            {
+                _thumbQueueSize = Integer.parseInt(val);
+            }
+            catch (NumberFormatException nfe)
+            {
+                throw new CommandProcessorException("Invalid value for <thumbnail_queue_size>: "+val);
+            }
+            if (_thumbQueueSize < 1) throw new CommandProcessorException("<thumbnail_queue_size> must be at least 1");
+        }
 
         val = args.getChildValue("include_subdirs");
         if (val != null) _loadSubDir = new Boolean(val).booleanValue();
@@ -175,6 +265,20 @@ public class PhotoLoader extends CommandProcessor
             }
         }
 
+        val = args.getChildValue("batch_size");
+        if (val != null)
+        {
+            try
+            {
+                _batchSize = Integer.parseInt(val);
+            }
+            catch (NumberFormatException nfe)
+            {
+                throw new CommandProcessorException("Invalid value for <batch_size>: "+val);
+            }
+            if (_batchSize < 1) throw new CommandProcessorException("<batch_size> must be at least 1");
+        }
+
         Vector dirs = args.getChildrenWithName("directory");
         int size = dirs.size();
         for (int i=0; i<size; i++)
@@ -185,15 +289,26 @@ public class PhotoLoader extends CommandProcessor
 
         if (_directories.size() == 0) throw new CommandProcessorException("At least one <directory> tag is required");
 
+        val = args.getChildValue("resume");
+        if (val != null) _resume = new Boolean(val).booleanValue();
+        val = args.getChildValue("journal");
+        if (val != null) _journalFile = new File(val);
+        else _journalFile = new File( System.getProperty("java.io.tmpdir"), "photo_loader_" + getJournalKey() + ".journal" );
+
         if (_debug)
         {
             System.out.println("Finished init:");
-            System.out.println( "_db = " + _db.getConfig() );
+            System.out.println( "_dbConfig = " + _dbConfig );
             System.out.println( "_homeDir = " + _homeDir );
             System.out.println( "_createThumbs = " + _createThumbs );
+            System.out.println( "_forceThumbs = " + _forceThumbs );
             System.out.println( "_thumbWidth = " + _thumbWidth );
+            System.out.println( "_thumbQueueSize = " + _thumbQueueSize );
             System.out.println( "_loadSubDir = " + _loadSubDir );
             System.out.println( "_categoryId = " + _categoryId );
+            System.out.println( "_batchSize = " + _batchSize );
+            System.out.println( "_journalFile = " + _journalFile );
+            System.out.println( "_resume = " + _resume );
             System.out.print( "_directories = " );
             for (int i=0; i<_directories.size(); i++)
             {
@@ -205,112 +320,448 @@ public class PhotoLoader extends CommandProcessor
 
     public CommandProcessorResult execute()
     {
-        CommandProcessorResult ret = null;
+        PhotoLoaderResult ret = new PhotoLoaderResult();
+        _result = ret;
+        long start = System.currentTimeMillis();
+        boolean reusable = true;
+        _journal = new PhotoLoaderJournal( _journalFile, getJournalKey() );
+        if (!_resume) _journal.delete();
+        else if ( _debug && _journal.hasCheckpoint() ) System.out.println( "Resuming after "+_journal.getTotalCommitted()+" photos, the last was "+_journal.getLastPhoto() );
         try
         {
-            int size = _directories.size();
-            for (int i=0; i<size; i++)
-            {
-                String dir = (String)_directories.get(i);
-                _homeDir.selectDirectory(dir, false);
-                loadPhotos();
-            }
-            ret = new CommandProcessorResult(CommandProcessorResult.SUCCESS);
+            _db = DBHandlePool.getDefault().checkOut(_dbKey, _dbConfig);
+            long insertStart = System.currentTimeMillis();
+            prepareInsert();
+            ret.addInsertTime( System.currentTimeMillis() - insertStart );
+            loadPhotos();
+            executeBatch();
+            _journal.delete();
+            ret.setType(CommandProcessorResult.SUCCESS);
         }
         catch (Exception e)
         {
-            ret = new CommandProcessorResult(CommandProcessorResult.FAILURE);
+            ret.setType(CommandProcessorResult.FAILURE);
             ret.setReason( e.getMessage() );
             ret.setStackTrace(e);
+            //Do not pool a connection that may be broken
+            if (e instanceof SQLException) reusable = false;
+        }
+        finally
+        {
+            closeInsert(reusable);
+        }
+        //Save the thumbnails created even if the load failed so they are not created again
+        saveThumbnailIndexes();
+        ret.setElapsed( System.currentTimeMillis() - start );
+        if (_debug)
+        {
+            System.out.println( "Loaded "+ret.getPhotos()+" photos in "+ret.getElapsed()+"ms ("+ret.getPhotosPerSecond()+" per second)" );
+            System.out.println( "Resumed past "+ret.getResumed()+" photos, walk "+ret.getWalkTime()+"ms, thumbnail wait "+ret.getThumbnailWaitTime()+"ms, insert "+ret.getInsertTime()+"ms" );
+            System.out.println( "DBHandlePool: "+DBHandlePool.getDefault() );
         }
         return ret;
     }
 
     private void loadPhotos() throws SQLException, IOException
     {
-        if (_debug) System.out.println( "Loading photos in "+_homeDir.getFileListing().getParentDirectory().getRootPath() );
-        _db.connect();
+        PhotoWalker walker = new PhotoWalker
+        (
+            _homeDir, _directories, _loadSubDir, ALLOWED_TYPES, Math.max(WALK_QUEUE_SIZE, _thumbQueueSize), _debug
+        );
+        walker.start();
         try
         {
-            FileListing listing = _homeDir.getFileListing();
-            int size = listing.size();
-            for (int i=0; i<size; i++)
+            String dir = null;
+            PhotoWalker.Photo photo = null;
+            while ( (photo=walker.next()) != null )
             {
-                FileSystemObject obj = (FileSystemObject)listing.get(i);
-                if (obj instanceof Directory)
+                if ( _debug && !photo.dir.equals(dir) ) System.out.println( "Loading photos in "+photo.dir );
+                dir = photo.dir;
+                //Photos are committed in name order, so any up to the directory's checkpoint were committed by a previous run
+                if ( _journal.isCommitted(photo.dir, photo.file.getName()) )
                 {
-                    if ( _loadSubDir && !obj.getRootPath().endsWith("/thumbs") )
-                    {
-                        String cur = _homeDir.getRootPath();
-                        _homeDir.selectDirectory(obj.getRootPath(), false);
-                        loadPhotos();
-                        _homeDir.selectDirectory(cur, false);
-                    }
-                    else if (_debug) System.out.println( "Skipping directory " + obj.getRootPath() );
+                    if (_debug) System.out.println( "Skipping photo committed by a previous run " + photo.path );
+                    _result.addResumed();
+                    continue;
                 }
-                else
+                //See if we are supposed to create thumbnails or not.
+                String thumbPath = null;
+                File image = null;
+                ThumbnailIndex thumbIndex = null;
+                Future<Long> thumbnail = null;
+                if (_createThumbs)
                 {
-                    int index = obj.getRootPath().lastIndexOf(".");
-                    String ext = obj.getRootPath().substring(index+1);
-                    if (ALLOWED_TYPES.get(ext.toLowerCase()) == null)
+                    //See if the thumbs directory exists
+                    File f = new File( photo.file.getParentFile(), "thumbs" );
+                    if ( !f.exists() ) f.mkdir();
+                    thumbPath = ( "/".equals(photo.dir) ? "" : photo.dir ) + "/thumbs/" + photo.file.getName();
+                    image = photo.file;
+                    thumbIndex = getThumbnailIndex(f);
+                    if ( !_forceThumbs && thumbIndex.isCurrent(image, _thumbWidth) )
                     {
-                        if (_debug) System.out.println( "Skipping file " + obj.getRootPath() );
-                        continue;
+                        if (_debug) System.out.println( "Thumbnail "+thumbPath+" is current for "+photo.path );
+                        _result.addCurrentThumbnail();
                     }
-                    //See if we are supposed to create thumbnails or not.
-                    String thumbPath = null;
-                    if (_createThumbs)
+                    else
                     {
-                        //See if the thumbs directory exists
-                        String imgDir = obj.getAbsolutePath();
-                        imgDir = imgDir.substring( 0, imgDir.lastIndexOf("/") );
-                        File f = new File(imgDir+"/thumbs");
-                        if ( !f.exists() ) f.mkdir();
-                        imgDir = obj.getRootPath().substring( 0, obj.getRootPath().lastIndexOf("/") );
-                        thumbPath = imgDir + "/thumbs/" + obj.getName();
-                        if (_debug) System.out.println( "Creating thumbnail "+thumbPath+" for "+obj.getRootPath() );
-                        ImageUtils.scaleImage(new File(obj.getAbsolutePath()), new File(f.getAbsolutePath()+"/"+obj.getName()), _thumbWidth);
+                        if (_debug) System.out.println( "Creating thumbnail "+thumbPath+" for "+photo.path );
+                        thumbnail = _thumbnailPool.submit
+                        (
+                            new ThumbnailTask( image, new File(f, photo.file.getName()), _thumbWidth )
+                        );
                     }
-                    loadPhoto( thumbPath, obj.getRootPath() );
                 }
+                _pending.add( new PendingPhoto(photo.dir, thumbPath, photo.path, image, thumbIndex, thumbnail) );
+                if (_pending.size() >= _thumbQueueSize) insertNext();
             }
+            flushPending();
         }
         finally
         {
-            _db.disconnect();
+            walker.cancel();
+            cancelPending();
+            _result.addWalkTime( walker.getWalkTime() );
         }
     }
 
-    private void loadPhoto(String tn, String path) throws SQLException
+    /**
+     * Waits for the thumbnail of the oldest queued photo and inserts it.
+     *
+     * @throws SQLException if the insert fails.
+     * @throws IOException if the thumbnail could not be created.
+     */
+    private void insertNext() throws SQLException, IOException
     {
+        PendingPhoto photo = _pending.removeFirst();
+        if (photo.thumbnail != null)
+        {
+            long waitStart = System.currentTimeMillis();
+            try
+            {
+                _result.addThumbnail( photo.thumbnail.get().longValue() );
+                photo.thumbIndex.update(photo.image, _thumbWidth);
+            }
+            catch (ExecutionException ee)
+            {
+                IOException ioe = new IOException( "Could not create thumbnail for "+photo.path+": "+ee.getCause().getMessage() );
+                ioe.initCause( ee.getCause() );
+                throw ioe;
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for thumbnail of "+photo.path);
+            }
+            finally
+            {
+                _result.addThumbnailWaitTime( System.currentTimeMillis() - waitStart );
+            }
+        }
+        loadPhoto(photo.dir, photo.thumbPath, photo.path);
+    }
+
+    /**
+     * Returns the index for the given thumbs directory, loading it the first time it is needed.
+     *
+     * @param dir The thumbs directory.
+     * @return ThumbnailIndex
+     */
+    private ThumbnailIndex getThumbnailIndex(File dir)
+    {
+        ThumbnailIndex ret = _thumbIndexes.get( dir.getAbsolutePath() );
+        if (ret == null)
+        {
+            ret = new ThumbnailIndex(dir);
+            _thumbIndexes.put(dir.getAbsolutePath(), ret);
+        }
+        return ret;
+    }
+
+    private void saveThumbnailIndexes()
+    {
+        for (Enumeration<String> e=_thumbIndexes.keys(); e.hasMoreElements();)
+        {
+            String dir = e.nextElement();
+            try
+            {
+                _thumbIndexes.get(dir).save();
+            }
+            catch (IOException ioe)
+            {
+                //The thumbnails are fine, they will just be created again next time
+                if (_debug) System.out.println( "Could not save thumbnail index in "+dir+": "+ioe.getMessage() );
+            }
+        }
+        _thumbIndexes.clear();
+    }
+
+    private void flushPending() throws SQLException, IOException
+    {
+        while (_pending.size() > 0)
+        {
+            insertNext();
+        }
+    }
+
+    private void cancelPending()
+    {
+        while (_pending.size() > 0)
+        {
+            PendingPhoto photo = _pending.removeFirst();
+            if (photo.thumbnail != null) photo.thumbnail.cancel(false);
+        }
+    }
+
+    /**
+     * Prepares the insert statement for the run in a transaction and reads the next order id of the category.
+     *
+     * @throws SQLException if the statement cannot be prepared.
+     */
+    private void prepareInsert() throws SQLException
+    {
+        _existingPaths.clear();
+        if (_categoryId > 0)
+        {
+            PreparedStatement pst = _db.prepareStatement
+            (
+                new StringBuffer("SELECT url_path FROM photo WHERE photo_category_id = ?")
+            );
+            try
+            {
+                pst.setLong(1, _categoryId);
+                ResultSet rs = pst.executeQuery();
+                long rows = 0;
+                while ( rs.next() )
+                {
+                    _existingPaths.add( rs.getString(1) );
+                    rows++;
+                }
+                rs.close();
+                //Matches the COUNT(*)+1 the order id has always been given
+                _nextOrderId = rows + 1;
+            }
+            finally
+            {
+                pst.close();
+            }
+            if (_debug) System.out.println( "Found "+_existingPaths.size()+" photos in category "+_categoryId );
+        }
         StringBuffer sql = new StringBuffer()
             .append("INSERT INTO photo (caption, thumbnail_path, url_path, photo_category_id, order_id, creation_date) ")
-            .append("SELECT ?, ?, ?, ?, num, now() ")
-            .append("FROM (SELECT COUNT(*)+1 num ")
-            .append(      "FROM photo ")
-            .append(      "WHERE photo_category_id = ?) num_photos ")
-            .append(     "LEFT JOIN photo ON (url_path = ? AND photo_category_id = ?) ")
-            .append("WHERE photo_id IS NULL ")
-            .append("LIMIT 1");
-        PreparedStatement pst = _db.prepareStatement(sql);
+            .append("VALUES (?, ?, ?, ?, ?, now())");
+        _insert = _db.prepareStatement(sql);
+        _insert.getConnection().setAutoCommit(false);
+    }
+
+    /**
+     * Adds the photo to the current batch and executes the batch when it is full.
+     *
+     * @param dir The directory the photo was listed in.
+     * @param tn The thumbnail path.
+     * @param path The photo path.
+     * @throws SQLException if the batch fails.
+     */
+    private void loadPhoto(String dir, String tn, String path) throws SQLException
+    {
+        //Only photos in a category are checked for duplicates, as it has always been
+        if ( _categoryId > 0 && !_existingPaths.add(path) )
+        {
+            //Still goes in the batch so the checkpoint moves past it
+            _batch.add( new BatchEntry(dir, path, false) );
+            if ( _batch.size() >= _batchSize ) executeBatch();
+            return;
+        }
         String caption = path;
         int index = caption.lastIndexOf("/");
         if (index != -1) caption = path.substring(index+1);
-        pst.setString(1, caption);
-        pst.setString(2, tn);
-        pst.setString(3, path);
-        if (_categoryId > 0) pst.setLong(4, _categoryId);
-        else pst.setNull(4, Types.NUMERIC);
-        if (_categoryId > 0) pst.setLong(5, _categoryId);
-        else pst.setNull(5, Types.NUMERIC);
-        pst.setString(6, path);
-        if (_categoryId > 0) pst.setLong(7, _categoryId);
-        else pst.setNull(7, Types.NUMERIC);
-        int count = pst.executeUpdate();
-        if (_debug)
+        _insert.setString(1, caption);
+        _insert.setString(2, tn);
+        _insert.setString(3, path);
+        if (_categoryId > 0) _insert.setLong(4, _categoryId);
+        else _insert.setNull(4, Types.NUMERIC);
+        //Without a category there is nothing to count, so every photo is first like the original count query
+        _insert.setLong(5, _nextOrderId);
+        if (_categoryId > 0) _nextOrderId++;
+        _insert.addBatch();
+        _batch.add( new BatchEntry(dir, path, true) );
+        if ( _batch.size() >= _batchSize ) executeBatch();
+    }
+
+    /**
+     * Executes and commits the current batch and writes the checkpoint.
+     *
+     * @throws SQLException if the batch fails, in which case it is rolled back.
+     */
+    private void executeBatch() throws SQLException
+    {
+        if (_insert == null || _batch.size() == 0) return;
+        int size = _batch.size();
+        int queued = 0;
+        for (int i=0; i<size; i++)
+        {
+            if (_batch.get(i).queued) queued++;
+        }
+        int[] counts = new int[0];
+        if (queued > 0)
+        {
+            long start = System.currentTimeMillis();
+            try
+            {
+                counts = _insert.executeBatch();
+                _insert.getConnection().commit();
+            }
+            catch (SQLException sqle)
+            {
+                _insert.getConnection().rollback();
+                throw sqle;
+            }
+            finally
+            {
+                _result.addInsertTime( System.currentTimeMillis() - start );
+            }
+        }
+        int count = 0;
+        for (int i=0; i<size; i++)
+        {
+            BatchEntry entry = _batch.get(i);
+            boolean inserted = false;
+            if (entry.queued)
+            {
+                inserted = (count >= counts.length || counts[count] > 0 || counts[count] == Statement.SUCCESS_NO_INFO);
+                count++;
+            }
+            _result.addPhoto(inserted);
+            _journal.addCommitted(entry.dir, entry.path);
+            if (_debug)
+            {
+                if (inserted) System.out.println( "Inserted row for file: url_path="+entry.path );
+                else System.out.println( "Row already existed in category for file: url_path="+entry.path );
+            }
+        }
+        _batch.clear();
+        try
+        {
+            _journal.save();
+        }
+        catch (IOException ioe)
+        {
+            //The load can go on, a failure would just resume from the previous checkpoint
+            if (_debug) System.out.println( "Could not write checkpoint to "+_journal.getFile()+": "+ioe.getMessage() );
+        }
+        if (_debug) System.out.println( "Processed "+_result.getPhotos()+" photos" );
+    }
+
+    /**
+     * Returns a digest of the key describing this load that the journal is written for. The key is the
+     * database, category, and directories; the credentials are left out.
+     *
+     * @return String
+     */
+    private String getJournalKey()
+    {
+        StringBuffer ret = new StringBuffer(_database)
+            .append("|").append(_categoryId)
+            .append("|").append(_loadSubDir);
+        for (int i=0; i<_directories.size(); i++)
+        {
+            ret.append("|").append( _directories.get(i) );
+        }
+        return PhotoLoaderJournal.digest( ret.toString() );
+    }
+
+    /**
+     * Closes the insert statement and returns the connection to the pool.
+     *
+     * @param reusable Whether the connection can be reused.
+     */
+    private void closeInsert(boolean reusable)
+    {
+        _batch.clear();
+        if (_insert != null)
+        {
+            try
+            {
+                Connection conn = _insert.getConnection();
+                conn.rollback();
+                conn.setAutoCommit(true);
+                _insert.close();
+            }
+            catch (SQLException sqle)
+            {
+                if (_debug) System.out.println( "Could not close insert statement: "+sqle.getMessage() );
+                reusable = false;
+            }
+            _insert = null;
+        }
+        if (_db != null)
+        {
+            if (reusable) DBHandlePool.getDefault().checkIn(_dbKey, _db);
+            else DBHandlePool.getDefault().discard(_db);
+            _db = null;
+        }
+    }
+
+    /**
+     * Scales an image to a thumbnail on the thumbnail pool and returns the time it took in milliseconds.
+     */
+    private static class ThumbnailTask implements Callable<Long>
+    {
+        private File _image;
+        private File _thumbnail;
+        private int _width;
+
+        private ThumbnailTask(File image, File thumbnail, int width)
+        {
+            _image = image;
+            _thumbnail = thumbnail;
+            _width = width;
+        }
+
+        public Long call() throws Exception
+        {
+            long start = System.currentTimeMillis();
+            Thumbnailer.scale(_image, _thumbnail, _width);
+            return new Long( System.currentTimeMillis() - start );
+        }
+    }
+
+    /**
+     * A photo waiting on its thumbnail to be inserted.
+     */
+    private static class PendingPhoto
+    {
+        private String dir;
+        private String thumbPath;
+        private String path;
+        private File image;
+        private ThumbnailIndex thumbIndex;
+        private Future<Long> thumbnail;
+
+        private PendingPhoto(String dir, String thumbPath, String path, File image, ThumbnailIndex thumbIndex, Future<Long> thumbnail)
+        {
+            this.dir = dir;
+            this.thumbPath = thumbPath;
+            this.path = path;
+            this.image = image;
+            this.thumbIndex = thumbIndex;
+            this.thumbnail = thumbnail;
+        }
+    }
+
+    /**
+     * A photo in the current batch and whether a row was queued for it or it was already in the category.
+     */
+    private static class BatchEntry
+    {
+        private String dir;
+        private String path;
+        private boolean queued;
+
+        private BatchEntry(String dir, String path, boolean queued)
         {
-            if (count > 0) System.out.println( "Inserted "+count+" row for file: caption="+caption+", thumbnail_path="+tn+", url_path="+path);
-            else System.out.println( "Row already existed in category for file: caption="+caption+", thumbnail_path="+tn+", url_path="+path);
+            this.dir = dir;
+            this.path = path;
+            this.queued = queued;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,193 @@
+package com.zitego.remoteCommandProcessor.process;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.Properties;
+
+/**
+ * A checkpoint of a photo load. For each directory it records the name of the last of its photos that was
+ * committed. Photos are walked and committed in name order, so a load that fails can be run again and skip
+ * the photos whose names sort at or before that name without creating their thumbnails or checking the
+ * database. Going by name rather than position means photos added to or removed from a directory between
+ * the runs do not shift which ones are skipped. A photo added with a name before the checkpoint is not
+ * loaded by the resumed run, but the journal is deleted once a load finishes so the next load picks it up.<br>
+ * <br>
+ * The journal is a properties file. It has a digest of a key describing the load (ie: the database,
+ * category, and directories) and is ignored when the digest does not match, so a journal is only resumed by
+ * the same load. Only the digest is written, so the key itself is never stored.
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+class PhotoLoaderJournal
+{
+    private static final String DIR_PREFIX = "dir.";
+    private static final String COMMITTED = "committed";
+    private File _file;
+    private String _key;
+    private Properties _entries = new Properties();
+
+    /**
+     * Loads the journal from the given file. A missing or unreadable journal, or one written for a
+     * different load, is treated as empty.
+     *
+     * @param file The journal file.
+     * @param key The digest of the key describing the load.
+     */
+    PhotoLoaderJournal(File file, String key)
+    {
+        _file = file;
+        _key = key;
+        if ( !file.exists() ) return;
+        InputStream in = null;
+        try
+        {
+            in = new FileInputStream(file);
+            _entries.load(in);
+            if ( !key.equals(_entries.getProperty("key")) ) _entries.clear();
+        }
+        catch (IOException ioe)
+        {
+            _entries.clear();
+        }
+        finally
+        {
+            if (in != null) try { in.close(); } catch (IOException ioe) { }
+        }
+    }
+
+    /**
+     * Returns the journal file.
+     *
+     * @return File
+     */
+    File getFile()
+    {
+        return _file;
+    }
+
+    /**
+     * Returns whether there is a checkpoint to resume from.
+     *
+     * @return boolean
+     */
+    boolean hasCheckpoint()
+    {
+        return _entries.getProperty("last") != null;
+    }
+
+    /**
+     * Returns the last photo that was committed or null if there is none.
+     *
+     * @return String
+     */
+    String getLastPhoto()
+    {
+        return _entries.getProperty("last");
+    }
+
+    /**
+     * Returns whether the photo with the given name in the given directory was committed by a previous run.
+     *
+     * @param dir The directory.
+     * @param name The photo's file name.
+     * @return boolean
+     */
+    boolean isCommitted(String dir, String name)
+    {
+        String last = _entries.getProperty(DIR_PREFIX + dir);
+        return (last != null && name.compareTo(last) <= 0);
+    }
+
+    /**
+     * Records that the given photo has been committed. Photos in a directory must be committed in name order.
+     *
+     * @param dir The directory.
+     * @param path The photo path.
+     */
+    void addCommitted(String dir, String path)
+    {
+        _entries.setProperty( DIR_PREFIX + dir, path.substring(path.lastIndexOf("/")+1) );
+        _entries.setProperty( COMMITTED, String.valueOf(getTotalCommitted()+1) );
+        _entries.setProperty("last", path);
+    }
+
+    /**
+     * Returns the number of photos that have been committed in all directories.
+     *
+     * @return int
+     */
+    int getTotalCommitted()
+    {
+        String val = _entries.getProperty(COMMITTED);
+        if (val == null) return 0;
+        try
+        {
+            return Integer.parseInt(val);
+        }
+        catch (NumberFormatException nfe)
+        {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns a digest of the given key to identify a load by without storing the key.
+     *
+     * @param key The key.
+     * @return String
+     */
+    static String digest(String key)
+    {
+        MessageDigest md = FileWriter.newDigest();
+        try
+        {
+            return FileWriter.toHex( md.digest(key.getBytes("UTF-8")) );
+        }
+        catch (UnsupportedEncodingException uee)
+        {
+            return FileWriter.toHex( md.digest(key.getBytes()) );
+        }
+    }
+
+    /**
+     * Writes the journal. It is written to a temporary file that is renamed over the journal so a failure
+     * while writing leaves the previous checkpoint.
+     *
+     * @throws IOException if the journal cannot be written.
+     */
+    void save() throws IOException
+    {
+        _entries.setProperty("key", _key);
+        File tmp = new File( _file.getAbsolutePath() + ".tmp" );
+        OutputStream out = new FileOutputStream(tmp);
+        try
+        {
+            _entries.store(out, "PhotoLoader checkpoint: last committed photo per directory");
+        }
+        finally
+        {
+            out.close();
+        }
+        if ( !tmp.renameTo(_file) )
+        {
+            _file.delete();
+            if ( !tmp.renameTo(_file) ) throw new IOException("Could not rename "+tmp+" to "+_file);
+        }
+    }
+
+    /**
+     * Clears the checkpoint and deletes the journal once the load has finished.
+     */
+    void delete()
+    {
+        _entries.clear();
+        _file.delete();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,278 @@
+package com.zitego.remoteCommandProcessor.process;
+
+import com.zitego.remoteCommandProcessor.CommandProcessorResult;
+import com.zitego.markup.xml.XmlTag;
+
+/**
+ * An extension of the command processor result to contain the progress of a photo load. When the load
+ * fails, the counts show how far it got before the failure. The time of each phase of the load is kept as
+ * well: walking the directories, waiting on thumbnails, and inserting rows.
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+public class PhotoLoaderResult extends CommandProcessorResult
+{
+    private int _photos = 0;
+    private int _inserted = 0;
+    private int _thumbnails = 0;
+    private int _currentThumbnails = 0;
+    private long _thumbnailTime = 0;
+    private long _elapsed = 0;
+    private int _resumed = 0;
+    private long _walkTime = 0;
+    private long _thumbnailWaitTime = 0;
+    private long _insertTime = 0;
+
+    /**
+     * Creates a new PhotoLoader result.
+     */
+    public PhotoLoaderResult()
+    {
+        super(SUCCESS);
+    }
+
+    /**
+     * Creates a new PhotoLoader result given the result type.
+     */
+    public PhotoLoaderResult(int type)
+    {
+        this();
+        setType(type);
+    }
+
+    /**
+     * Records that a photo was processed.
+     *
+     * @param inserted Whether a row was inserted for the photo or it already existed.
+     */
+    public void addPhoto(boolean inserted)
+    {
+        _photos++;
+        if (inserted) _inserted++;
+    }
+
+    /**
+     * Records that a thumbnail was created.
+     *
+     * @param time The time in milliseconds it took to create the thumbnail.
+     */
+    public void addThumbnail(long time)
+    {
+        _thumbnails++;
+        _thumbnailTime += time;
+    }
+
+    /**
+     * Records that a thumbnail was current and did not need to be created.
+     */
+    public void addCurrentThumbnail()
+    {
+        _currentThumbnails++;
+    }
+
+    /**
+     * Records that a photo was skipped because a previous load committed it.
+     */
+    public void addResumed()
+    {
+        _resumed++;
+    }
+
+    /**
+     * Adds to the time spent walking directories.
+     *
+     * @param time The time in milliseconds.
+     */
+    public void addWalkTime(long time)
+    {
+        _walkTime += time;
+    }
+
+    /**
+     * Adds to the time spent waiting on thumbnails to be created.
+     *
+     * @param time The time in milliseconds.
+     */
+    public void addThumbnailWaitTime(long time)
+    {
+        _thumbnailWaitTime += time;
+    }
+
+    /**
+     * Adds to the time spent inserting and committing rows.
+     *
+     * @param time The time in milliseconds.
+     */
+    public void addInsertTime(long time)
+    {
+        _insertTime += time;
+    }
+
+    /**
+     * Returns the number of photos processed.
+     *
+     * @return int
+     */
+    public int getPhotos()
+    {
+        return _photos;
+    }
+
+    /**
+     * Returns the number of photos inserted.
+     *
+     * @return int
+     */
+    public int getInserted()
+    {
+        return _inserted;
+    }
+
+    /**
+     * Returns the number of photos that were already loaded.
+     *
+     * @return int
+     */
+    public int getExisting()
+    {
+        return _photos - _inserted;
+    }
+
+    /**
+     * Returns the number of thumbnails created.
+     *
+     * @return int
+     */
+    public int getThumbnails()
+    {
+        return _thumbnails;
+    }
+
+    /**
+     * Returns the number of thumbnails that were current and not created again.
+     *
+     * @return int
+     */
+    public int getCurrentThumbnails()
+    {
+        return _currentThumbnails;
+    }
+
+    /**
+     * Returns the total time in milliseconds spent creating thumbnails across all of the worker threads.
+     *
+     * @return long
+     */
+    public long getThumbnailTime()
+    {
+        return _thumbnailTime;
+    }
+
+    /**
+     * Returns the number of photos skipped because a previous load committed them.
+     *
+     * @return int
+     */
+    public int getResumed()
+    {
+        return _resumed;
+    }
+
+    /**
+     * Returns the time in milliseconds spent walking directories.
+     *
+     * @return long
+     */
+    public long getWalkTime()
+    {
+        return _walkTime;
+    }
+
+    /**
+     * Returns the time in milliseconds the load spent waiting on thumbnails to be created.
+     *
+     * @return long
+     */
+    public long getThumbnailWaitTime()
+    {
+        return _thumbnailWaitTime;
+    }
+
+    /**
+     * Returns the time in milliseconds spent inserting and committing rows.
+     *
+     * @return long
+     */
+    public long getInsertTime()
+    {
+        return _insertTime;
+    }
+
+    /**
+     * Sets the time in milliseconds the load took.
+     *
+     * @param elapsed The elapsed time.
+     */
+    public void setElapsed(long elapsed)
+    {
+        _elapsed = elapsed;
+    }
+
+    /**
+     * Returns the time in milliseconds the load took.
+     *
+     * @return long
+     */
+    public long getElapsed()
+    {
+        return _elapsed;
+    }
+
+    /**
+     * Returns the number of photos processed per second.
+     *
+     * @return double
+     */
+    public double getPhotosPerSecond()
+    {
+        if (_elapsed <= 0) return 0;
+        else return _photos * 1000d / _elapsed;
+    }
+
+    protected XmlTag getDetails()
+    {
+        XmlTag ret = new XmlTag("photo-load");
+        ret.setAttribute( "photos", String.valueOf(_photos) );
+        ret.setAttribute( "inserted", String.valueOf(_inserted) );
+        ret.setAttribute( "thumbnails", String.valueOf(_thumbnails) );
+        ret.setAttribute( "current_thumbnails", String.valueOf(_currentThumbnails) );
+        ret.setAttribute( "thumbnail_time", String.valueOf(_thumbnailTime) );
+        ret.setAttribute( "elapsed", String.valueOf(_elapsed) );
+        ret.setAttribute( "resumed", String.valueOf(_resumed) );
+        ret.setAttribute( "walk_time", String.valueOf(_walkTime) );
+        ret.setAttribute( "thumbnail_wait_time", String.valueOf(_thumbnailWaitTime) );
+        ret.setAttribute( "insert_time", String.valueOf(_insertTime) );
+        return ret;
+    }
+
+    public void deserialize(XmlTag tag)
+    {
+        if (tag == null) return;
+
+        XmlTag load = tag.getFirstOccurrenceOf("photo-load");
+        if (load != null)
+        {
+            _photos = Integer.parseInt( load.getTagAttribute("photos") );
+            _inserted = Integer.parseInt( load.getTagAttribute("inserted") );
+            _thumbnails = Integer.parseInt( load.getTagAttribute("thumbnails") );
+            if (load.getTagAttribute("current_thumbnails") != null) _currentThumbnails = Integer.parseInt( load.getTagAttribute("current_thumbnails") );
+            _thumbnailTime = Long.parseLong( load.getTagAttribute("thumbnail_time") );
+            _elapsed = Long.parseLong( load.getTagAttribute("elapsed") );
+            if (load.getTagAttribute("resumed") != null) _resumed = Integer.parseInt( load.getTagAttribute("resumed") );
+            if (load.getTagAttribute("walk_time") != null) _walkTime = Long.parseLong( load.getTagAttribute("walk_time") );
+            if (load.getTagAttribute("thumbnail_wait_time") != null) _thumbnailWaitTime = Long.parseLong( load.getTagAttribute("thumbnail_wait_time") );
+            if (load.getTagAttribute("insert_time") != null) _insertTime = Long.parseLong( load.getTagAttribute("insert_time") );
+        }
+    }
+}
\ No newline at end of file
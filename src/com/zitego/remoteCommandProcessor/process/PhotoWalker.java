@@ -0,0 +1,243 @@
+package com.zitego.remoteCommandProcessor.process;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Walks the directories of a photo load on its own thread and hands the photos it finds to the loader
+ * through a bounded queue. Only one directory is listed at a time and the walker waits when the queue is
+ * full, so memory does not grow with the size of the gallery and the next directories are read while the
+ * loader is creating thumbnails for the last ones.<br>
+ * <br>
+ * The names in a directory are visited in sorted order and sub directories are walked where they fall in
+ * that order, so every load of the same tree sees the photos in the same order. Sub directories named thumbs
+ * are never walked. Paths are given relative to the home directory with a leading slash.
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+class PhotoWalker implements Runnable
+{
+    private static ExecutorService _walkerPool = Executors.newCachedThreadPool
+    (
+        new ThreadFactory()
+        {
+            private AtomicInteger _count = new AtomicInteger();
+
+            public Thread newThread(Runnable r)
+            {
+                Thread ret = new Thread( r, "rcp-photo-walker-" + _count.incrementAndGet() );
+                ret.setDaemon(true);
+                return ret;
+            }
+        }
+    );
+    /** Marks the end of the walk in the queue. */
+    private static final Photo END = new Photo(null, null, null);
+    private File _home;
+    private List<String> _directories;
+    private boolean _subDirs;
+    private Hashtable _types;
+    private boolean _debug;
+    private BlockingQueue<Photo> _queue;
+    private volatile boolean _cancelled = false;
+    private volatile IOException _error;
+    private volatile long _walkTime = 0;
+    private boolean _done = false;
+
+    /**
+     * Creates a new walker. Call start to begin walking.
+     *
+     * @param home The home directory.
+     * @param directories The directories to walk relative to the home directory.
+     * @param subDirs Whether to walk sub directories.
+     * @param types The lower case file extensions of photos.
+     * @param capacity The most photos to have waiting in the queue.
+     * @param debug Whether to print the files and directories that are skipped.
+     */
+    PhotoWalker(File home, List<String> directories, boolean subDirs, Hashtable types, int capacity, boolean debug)
+    {
+        _home = home;
+        _directories = directories;
+        _subDirs = subDirs;
+        _types = types;
+        _queue = new ArrayBlockingQueue<Photo>(capacity);
+        _debug = debug;
+    }
+
+    /**
+     * Starts walking on the walker pool.
+     */
+    void start()
+    {
+        _walkerPool.execute(this);
+    }
+
+    /**
+     * Returns the next photo, waiting for the walker if need be, or null when there are no more.
+     *
+     * @return Photo
+     * @throws IOException if a directory could not be walked.
+     */
+    Photo next() throws IOException
+    {
+        if (_done) return null;
+        Photo ret = null;
+        try
+        {
+            ret = _queue.take();
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the directory walk");
+        }
+        if (ret == END)
+        {
+            _done = true;
+            if (_error != null) throw _error;
+            return null;
+        }
+        return ret;
+    }
+
+    /**
+     * Stops the walk. Photos that have not been taken are dropped.
+     */
+    void cancel()
+    {
+        _cancelled = true;
+        _queue.clear();
+    }
+
+    /**
+     * Returns the time in milliseconds spent listing directories, not counting time waiting on the queue.
+     *
+     * @return long
+     */
+    long getWalkTime()
+    {
+        return _walkTime;
+    }
+
+    public void run()
+    {
+        try
+        {
+            for (int i=0; i<_directories.size() && !_cancelled; i++)
+            {
+                String dir = normalize( _directories.get(i) );
+                File f = new File(_home, dir);
+                if ( !f.isDirectory() ) throw new IOException("Directory does not exist: "+dir);
+                walk(f, dir);
+            }
+        }
+        catch (IOException ioe)
+        {
+            _error = ioe;
+        }
+        catch (InterruptedException ie)
+        {
+            _error = new IOException("Interrupted walking directories");
+        }
+        catch (RuntimeException re)
+        {
+            IOException ioe = new IOException( "Could not walk directories: "+re.getMessage() );
+            ioe.initCause(re);
+            _error = ioe;
+        }
+        finally
+        {
+            end();
+        }
+    }
+
+    private void end()
+    {
+        try
+        {
+            while ( !_queue.offer(END, 100, TimeUnit.MILLISECONDS) )
+            {
+                //Nothing will take the rest if the walk was cancelled, so make room for the end marker
+                if (_cancelled) _queue.clear();
+            }
+        }
+        catch (InterruptedException ie)
+        {
+            _queue.clear();
+            _queue.offer(END);
+        }
+    }
+
+    private void walk(File dir, String rootPath) throws IOException, InterruptedException
+    {
+        long start = System.currentTimeMillis();
+        String[] names = dir.list();
+        if (names == null) throw new IOException("Could not list directory: "+rootPath);
+        Arrays.sort(names);
+        _walkTime += System.currentTimeMillis() - start;
+        for (int i=0; i<names.length && !_cancelled; i++)
+        {
+            String path = ( "/".equals(rootPath) ? "" : rootPath ) + "/" + names[i];
+            File f = new File(dir, names[i]);
+            if ( f.isDirectory() )
+            {
+                if ( _subDirs && !"thumbs".equals(names[i]) ) walk(f, path);
+                else if (_debug) System.out.println( "Skipping directory " + path );
+                continue;
+            }
+            int dot = names[i].lastIndexOf(".");
+            if (dot == -1 || _types.get( names[i].substring(dot+1).toLowerCase() ) == null)
+            {
+                if (_debug) System.out.println( "Skipping file " + path );
+                continue;
+            }
+            Photo photo = new Photo(rootPath, path, f);
+            while ( !_cancelled && !_queue.offer(photo, 100, TimeUnit.MILLISECONDS) ) { }
+        }
+    }
+
+    /**
+     * Returns the directory relative to the home directory with a leading slash and no trailing slash.
+     *
+     * @param dir The directory.
+     * @return String
+     */
+    private static String normalize(String dir)
+    {
+        String ret = dir.trim().replace('\\', '/');
+        while (ret.endsWith("/") && ret.length() > 1) ret = ret.substring( 0, ret.length()-1 );
+        if ( !ret.startsWith("/") ) ret = "/" + ret;
+        return ret;
+    }
+
+    /**
+     * A photo found by the walker.
+     */
+    static class Photo
+    {
+        /** The path of the directory it is in. */
+        final String dir;
+        /** The path relative to the home directory. */
+        final String path;
+        /** The file. */
+        final File file;
+
+        private Photo(String dir, String path, File file)
+        {
+            this.dir = dir;
+            this.path = path;
+            this.file = file;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,182 @@
+package com.zitego.remoteCommandProcessor.process;
+
+import com.zitego.remoteCommandProcessor.CommandProcessorDocument;
+import com.zitego.remoteCommandProcessor.CommandProcessorResult;
+import com.zitego.remoteCommandProcessor.request.RemoteCommandProcessorRequest;
+import com.zitego.format.FormatType;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * This class reads a file on a remote command server as an input stream. The file is fetched with
+ * FileReader one chunk at a time using byte ranges, so only a single chunk is held in memory on either
+ * side no matter how large the file is. The username and password, when given, are sent with every chunk
+ * request.
+ *
+ * Example:
+ * <xmp>
+ * InputStream in = new RemoteFileInputStream
+ * (
+ *     new HttpRemoteCommandProcessorRequest("http://10.0.0.5/rcp/process"), "/usr/local/tomcat/logs/catalina.out",
+ *     "admin", "secret"
+ * );
+ * </xmp>
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+public class RemoteFileInputStream extends InputStream
+{
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    private RemoteCommandProcessorRequest _request;
+    private String _file;
+    private String _username;
+    private String _password;
+    private long _position;
+    private long _end;
+    private int _chunkSize;
+    private byte[] _buffer = new byte[0];
+    private int _bufferPos = 0;
+    private long _fileSize = -1;
+    private boolean _eof = false;
+
+    /**
+     * Creates a stream for the whole remote file using the default chunk size.
+     *
+     * @param request The request to send FileReader commands with.
+     * @param file The absolute path to the remote file.
+     */
+    public RemoteFileInputStream(RemoteCommandProcessorRequest request, String file)
+    {
+        this(request, file, 0, -1, DEFAULT_CHUNK_SIZE, null, null);
+    }
+
+    /**
+     * Creates a stream for the whole remote file using the default chunk size and the given credentials.
+     *
+     * @param request The request to send FileReader commands with.
+     * @param file The absolute path to the remote file.
+     * @param username The username to send with each request.
+     * @param password The password to send with each request.
+     */
+    public RemoteFileInputStream(RemoteCommandProcessorRequest request, String file, String username, String password)
+    {
+        this(request, file, 0, -1, DEFAULT_CHUNK_SIZE, username, password);
+    }
+
+    /**
+     * Creates a stream for a range of the remote file.
+     *
+     * @param request The request to send FileReader commands with.
+     * @param file The absolute path to the remote file.
+     * @param offset The byte offset to start reading from.
+     * @param length The number of bytes to read or -1 for the rest of the file.
+     * @param chunkSize The number of bytes to fetch per request.
+     * @throws IllegalArgumentException if the request or file is null or the chunk size is less than 1.
+     */
+    public RemoteFileInputStream(RemoteCommandProcessorRequest request, String file, long offset, long length, int chunkSize) throws IllegalArgumentException
+    {
+        this(request, file, offset, length, chunkSize, null, null);
+    }
+
+    /**
+     * Creates a stream for a range of the remote file.
+     *
+     * @param request The request to send FileReader commands with.
+     * @param file The absolute path to the remote file.
+     * @param offset The byte offset to start reading from.
+     * @param length The number of bytes to read or -1 for the rest of the file.
+     * @param chunkSize The number of bytes to fetch per request.
+     * @param username The username to send with each request or null for none.
+     * @param password The password to send with each request or null for none.
+     * @throws IllegalArgumentException if the request or file is null or the chunk size is less than 1.
+     */
+    public RemoteFileInputStream(RemoteCommandProcessorRequest request, String file, long offset, long length, int chunkSize,
+                                 String username, String password) throws IllegalArgumentException
+    {
+        if (request == null) throw new IllegalArgumentException("request cannot be null");
+        if (file == null) throw new IllegalArgumentException("file cannot be null");
+        if (chunkSize < 1) throw new IllegalArgumentException("chunk size must be at least 1");
+        _request = request;
+        _file = file;
+        _position = Math.max(offset, 0);
+        _end = (length < 0 ? Long.MAX_VALUE : _position + length);
+        _chunkSize = chunkSize;
+        _username = username;
+        _password = password;
+    }
+
+    public int read() throws IOException
+    {
+        if ( !fill() ) return -1;
+        return _buffer[_bufferPos++] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (len == 0) return 0;
+        if ( !fill() ) return -1;
+        int ret = Math.min(len, _buffer.length - _bufferPos);
+        System.arraycopy(_buffer, _bufferPos, b, off, ret);
+        _bufferPos += ret;
+        return ret;
+    }
+
+    public int available()
+    {
+        return _buffer.length - _bufferPos;
+    }
+
+    /**
+     * Returns the size of the remote file or -1 if nothing has been read yet.
+     *
+     * @return long
+     */
+    public long getFileSize()
+    {
+        return _fileSize;
+    }
+
+    /**
+     * Fetches the next chunk if the current one has been consumed. Returns false at the end of the range.
+     *
+     * @return boolean
+     * @throws IOException if the remote read fails.
+     */
+    private boolean fill() throws IOException
+    {
+        if (_bufferPos < _buffer.length) return true;
+        if (_eof || _position >= _end) return false;
+
+        FileReader reader = new FileReader();
+        reader.setFile(_file);
+        reader.setRange( _position, Math.min(_chunkSize, _end - _position) );
+        reader.setEncoding(FileReader.BASE64);
+        CommandProcessorResult result = null;
+        try
+        {
+            CommandProcessorDocument doc = reader.createDocument();
+            if (_username != null) doc.setUsername(_username);
+            if (_password != null) doc.setPassword(_password);
+            _request.setXml( doc.format(FormatType.XML) );
+            result = _request.execute();
+        }
+        catch (Exception e)
+        {
+            IOException ioe = new IOException("Could not read " + _file + " at offset " + _position + ": " + e.getMessage());
+            ioe.initCause(e);
+            throw ioe;
+        }
+        if (result.getType() != CommandProcessorResult.SUCCESS) throw new IOException( "Could not read " + _file + ": " + result.getReason() );
+        if ( !(result instanceof FileReaderResult) ) throw new IOException( "Unexpected result reading " + _file + ": " + result.getClass().getName() );
+
+        FileReaderResult chunk = (FileReaderResult)result;
+        _fileSize = chunk.getFileSize();
+        byte[] data = chunk.getBytes();
+        _buffer = (data != null ? data : new byte[0]);
+        _bufferPos = 0;
+        _position += _buffer.length;
+        if (_buffer.length == 0 || (_fileSize > -1 && _position >= _fileSize) ) _eof = true;
+        return _buffer.length > 0;
+    }
+}
\ No newline at end of file
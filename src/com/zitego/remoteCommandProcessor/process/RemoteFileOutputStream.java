@@ -0,0 +1,167 @@
+package com.zitego.remoteCommandProcessor.process;
+
+import com.zitego.remoteCommandProcessor.CommandProcessorDocument;
+import com.zitego.remoteCommandProcessor.CommandProcessorResult;
+import com.zitego.remoteCommandProcessor.request.RemoteCommandProcessorRequest;
+import com.zitego.format.FormatType;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+/**
+ * This class writes a file on a remote command server as an output stream. The data is sent to FileWriter
+ * one chunk at a time, so only a single chunk is held in memory on either side no matter how large the file
+ * is. Closing the stream sends the md5 checksum of everything written and the remote side renames the
+ * completed upload over the target file(s). Nothing is visible at the target until the stream is closed.
+ * The username and password, when given, are sent with every chunk.
+ *
+ * Example:
+ * <xmp>
+ * OutputStream out = new RemoteFileOutputStream
+ * (
+ *     new HttpRemoteCommandProcessorRequest("http://10.0.0.5/rcp/process"), "/home/httpd/domains/example.com/video.mp4",
+ *     "admin", "secret"
+ * );
+ * </xmp>
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+public class RemoteFileOutputStream extends OutputStream
+{
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    private RemoteCommandProcessorRequest _request;
+    private String[] _files;
+    private String _username;
+    private String _password;
+    private byte[] _buffer;
+    private int _count = 0;
+    private long _offset = 0;
+    private MessageDigest _md5 = FileWriter.newDigest();
+    private boolean _closed = false;
+
+    /**
+     * Creates a stream to the given remote file using the default chunk size.
+     *
+     * @param request The request to send FileWriter commands with.
+     * @param file The absolute path to the remote file.
+     */
+    public RemoteFileOutputStream(RemoteCommandProcessorRequest request, String file)
+    {
+        this( request, new String[] { file }, DEFAULT_CHUNK_SIZE, null, null );
+    }
+
+    /**
+     * Creates a stream to the given remote file using the default chunk size and the given credentials.
+     *
+     * @param request The request to send FileWriter commands with.
+     * @param file The absolute path to the remote file.
+     * @param username The username to send with each request.
+     * @param password The password to send with each request.
+     */
+    public RemoteFileOutputStream(RemoteCommandProcessorRequest request, String file, String username, String password)
+    {
+        this( request, new String[] { file }, DEFAULT_CHUNK_SIZE, username, password );
+    }
+
+    /**
+     * Creates a stream to the given remote files. The data is uploaded once and written to each file.
+     *
+     * @param request The request to send FileWriter commands with.
+     * @param files The absolute paths to the remote files.
+     * @param chunkSize The number of bytes to send per request.
+     * @throws IllegalArgumentException if the request is null, no files are given, or the chunk size is less than 1.
+     */
+    public RemoteFileOutputStream(RemoteCommandProcessorRequest request, String[] files, int chunkSize) throws IllegalArgumentException
+    {
+        this(request, files, chunkSize, null, null);
+    }
+
+    /**
+     * Creates a stream to the given remote files. The data is uploaded once and written to each file.
+     *
+     * @param request The request to send FileWriter commands with.
+     * @param files The absolute paths to the remote files.
+     * @param chunkSize The number of bytes to send per request.
+     * @param username The username to send with each request or null for none.
+     * @param password The password to send with each request or null for none.
+     * @throws IllegalArgumentException if the request is null, no files are given, or the chunk size is less than 1.
+     */
+    public RemoteFileOutputStream(RemoteCommandProcessorRequest request, String[] files, int chunkSize, String username,
+                                  String password) throws IllegalArgumentException
+    {
+        if (request == null) throw new IllegalArgumentException("request cannot be null");
+        if (files == null || files.length == 0 || files[0] == null) throw new IllegalArgumentException("at least one file is required");
+        if (chunkSize < 1) throw new IllegalArgumentException("chunk size must be at least 1");
+        _request = request;
+        _files = files;
+        _buffer = new byte[chunkSize];
+        _username = username;
+        _password = password;
+    }
+
+    public void write(int b) throws IOException
+    {
+        if (_count == _buffer.length) send(false);
+        _buffer[_count++] = (byte)b;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        while (len > 0)
+        {
+            if (_count == _buffer.length) send(false);
+            int copy = Math.min(len, _buffer.length - _count);
+            System.arraycopy(b, off, _buffer, _count, copy);
+            _count += copy;
+            off += copy;
+            len -= copy;
+        }
+    }
+
+    /**
+     * Sends the last chunk along with the checksum, which completes the upload.
+     *
+     * @throws IOException if the upload fails.
+     */
+    public void close() throws IOException
+    {
+        if (_closed) return;
+        _closed = true;
+        send(true);
+    }
+
+    private void send(boolean finish) throws IOException
+    {
+        if (_closed && !finish) throw new IOException("Stream is closed");
+        FileWriter writer = new FileWriter();
+        for (int i=0; i<_files.length; i++)
+        {
+            writer.addFile(_files[i]);
+        }
+        if (_count > 0 || _offset == 0)
+        {
+            writer.setChunk(_buffer, 0, _count, _offset);
+            _md5.update(_buffer, 0, _count);
+        }
+        if (finish) writer.setFinalize( FileWriter.toHex(_md5.digest()) );
+        CommandProcessorResult result = null;
+        try
+        {
+            CommandProcessorDocument doc = writer.createDocument();
+            if (_username != null) doc.setUsername(_username);
+            if (_password != null) doc.setPassword(_password);
+            _request.setXml( doc.format(FormatType.XML) );
+            result = _request.execute();
+        }
+        catch (Exception e)
+        {
+            IOException ioe = new IOException("Could not write " + _files[0] + " at offset " + _offset + ": " + e.getMessage());
+            ioe.initCause(e);
+            throw ioe;
+        }
+        if (result.getType() != CommandProcessorResult.SUCCESS) throw new IOException( "Could not write " + _files[0] + ": " + result.getReason() );
+        _offset += _count;
+        _count = 0;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,174 @@
+package com.zitego.remoteCommandProcessor.process;
+
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Debounces restarts of a server. Restarts that are requested within the window of each other are run as
+ * one restart once no more have been requested for the window, but never later than ten windows after the
+ * first request so a steady stream of requests cannot hold off the restart forever. Every caller gets back
+ * the shared Restart and can wait for its outcome. A request made while a restart is running is run with
+ * the next one. There is one scheduler per restart command and all of them run restarts one at a time on a
+ * single daemon thread.
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+class RestartScheduler
+{
+    private static final int MAX_WINDOWS = 10;
+    private static Hashtable<String, RestartScheduler> _schedulers = new Hashtable<String, RestartScheduler>();
+    private static ScheduledExecutorService _timer = Executors.newSingleThreadScheduledExecutor
+    (
+        new ThreadFactory()
+        {
+            private AtomicInteger _count = new AtomicInteger();
+
+            public Thread newThread(Runnable r)
+            {
+                Thread ret = new Thread( r, "rcp-restart-" + _count.incrementAndGet() );
+                ret.setDaemon(true);
+                return ret;
+            }
+        }
+    );
+    private long _window;
+    private Restart _pending;
+
+    /**
+     * Returns the scheduler for the given restart command. The window is updated if it has changed.
+     *
+     * @param command The restart command.
+     * @param window The time in milliseconds to wait for more requests before restarting.
+     * @return RestartScheduler
+     */
+    static synchronized RestartScheduler getInstance(String command, long window)
+    {
+        RestartScheduler ret = _schedulers.get(command);
+        if (ret == null)
+        {
+            ret = new RestartScheduler();
+            _schedulers.put(command, ret);
+        }
+        synchronized (ret)
+        {
+            ret._window = Math.max(0, window);
+        }
+        return ret;
+    }
+
+    private RestartScheduler() { }
+
+    /**
+     * Requests a restart and returns the restart that will handle it. If no restart is pending, the given
+     * action is what will be run to restart.
+     *
+     * @param action The action that restarts the server.
+     * @return Restart
+     */
+    synchronized Restart request(Callable<Object> action)
+    {
+        long now = System.currentTimeMillis();
+        if (_pending == null)
+        {
+            _pending = new Restart(action, now);
+            _timer.schedule(new RestartTask(_pending), _window, TimeUnit.MILLISECONDS);
+        }
+        _pending.due = Math.min(now + _window, _pending.first + _window * MAX_WINDOWS);
+        return _pending;
+    }
+
+    /**
+     * Returns the time left until the given restart is due, or takes it off pending and returns 0 when it is
+     * due so that later requests go to a new restart.
+     *
+     * @param restart The restart.
+     * @return long
+     */
+    private synchronized long start(Restart restart)
+    {
+        long ret = restart.due - System.currentTimeMillis();
+        if (ret > 0) return ret;
+        if (_pending == restart) _pending = null;
+        return 0;
+    }
+
+    /**
+     * Runs a restart when it is due, otherwise schedules itself again for when it will be.
+     */
+    private class RestartTask implements Runnable
+    {
+        private Restart _restart;
+
+        private RestartTask(Restart restart)
+        {
+            _restart = restart;
+        }
+
+        public void run()
+        {
+            long wait = start(_restart);
+            if (wait > 0)
+            {
+                _timer.schedule(this, wait, TimeUnit.MILLISECONDS);
+                return;
+            }
+            try
+            {
+                _restart.action.call();
+            }
+            catch (Exception e)
+            {
+                //Nobody may be waiting for it, so make sure the failure is not lost
+                e.printStackTrace();
+                _restart.error = e;
+            }
+            finally
+            {
+                _restart.done.countDown();
+            }
+        }
+    }
+
+    /**
+     * A restart shared by the requests that were debounced into it.
+     */
+    static class Restart
+    {
+        private Callable<Object> action;
+        private long first;
+        private long due;
+        private volatile Exception error;
+        private CountDownLatch done = new CountDownLatch(1);
+
+        private Restart(Callable<Object> action, long first)
+        {
+            this.action = action;
+            this.first = first;
+            this.due = first;
+        }
+
+        /**
+         * Waits for the restart to finish.
+         *
+         * @throws IOException if the restart failed.
+         * @throws InterruptedException if interrupted while waiting.
+         */
+        void waitFor() throws IOException, InterruptedException
+        {
+            done.await();
+            if (error == null) return;
+            if (error instanceof IOException) throw (IOException)error;
+            IOException ioe = new IOException( "Restart failed: "+error.getMessage() );
+            ioe.initCause(error);
+            throw ioe;
+        }
+    }
+}
\ No newline at end of file
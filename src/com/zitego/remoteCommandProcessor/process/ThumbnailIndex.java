@@ -0,0 +1,111 @@
+package com.zitego.remoteCommandProcessor.process;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * An index of the thumbnails in a thumbs directory. For each thumbnail it records the size and last modified
+ * time of the image it was created from along with the width it was scaled to. A thumbnail is current when
+ * it exists and all three still match, in which case it does not need to be created again. The index is
+ * kept in a file named .thumbnails in the thumbs directory.
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+class ThumbnailIndex
+{
+    static final String FILE_NAME = ".thumbnails";
+    private File _dir;
+    private Properties _entries = new Properties();
+    private boolean _changed = false;
+
+    /**
+     * Loads the index for the given thumbs directory. A missing or unreadable index is treated as empty.
+     *
+     * @param dir The thumbs directory.
+     */
+    ThumbnailIndex(File dir)
+    {
+        _dir = dir;
+        File file = new File(dir, FILE_NAME);
+        if ( !file.exists() ) return;
+        InputStream in = null;
+        try
+        {
+            in = new FileInputStream(file);
+            _entries.load(in);
+        }
+        catch (IOException ioe)
+        {
+            _entries.clear();
+        }
+        finally
+        {
+            if (in != null) try { in.close(); } catch (IOException ioe) { }
+        }
+    }
+
+    /**
+     * Returns whether the thumbnail of the given image exists and was created from the image as it is now
+     * at the given width.
+     *
+     * @param image The image.
+     * @param width The thumbnail width.
+     * @return boolean
+     */
+    boolean isCurrent(File image, int width)
+    {
+        String entry = _entries.getProperty( image.getName() );
+        if (entry == null || !new File(_dir, image.getName()).exists() ) return false;
+        return entry.equals( createEntry(image, width) );
+    }
+
+    /**
+     * Records that the thumbnail of the given image was created at the given width.
+     *
+     * @param image The image.
+     * @param width The thumbnail width.
+     */
+    void update(File image, int width)
+    {
+        _entries.setProperty( image.getName(), createEntry(image, width) );
+        _changed = true;
+    }
+
+    /**
+     * Writes the index if it has changed. It is written to a temporary file that is renamed over the index.
+     *
+     * @throws IOException if the index cannot be written.
+     */
+    void save() throws IOException
+    {
+        if (!_changed) return;
+        File tmp = new File(_dir, FILE_NAME + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try
+        {
+            _entries.store(out, "Thumbnail index: source size:last modified:width");
+        }
+        finally
+        {
+            out.close();
+        }
+        File file = new File(_dir, FILE_NAME);
+        if ( !tmp.renameTo(file) )
+        {
+            file.delete();
+            if ( !tmp.renameTo(file) ) throw new IOException("Could not rename "+tmp+" to "+file);
+        }
+        _changed = false;
+    }
+
+    private static String createEntry(File image, int width)
+    {
+        return image.length() + ":" + image.lastModified() + ":" + width;
+    }
+}
\ No newline at end of file
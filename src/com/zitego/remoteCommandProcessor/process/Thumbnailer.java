@@ -0,0 +1,177 @@
+package com.zitego.remoteCommandProcessor.process;
+
+import com.zitego.util.ImageUtils;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Iterator;
+import java.util.List;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Creates thumbnails without decoding the full image. The image reader is asked to subsample the source so
+ * that only about twice as many pixels as the thumbnail needs are decoded, and that is then smoothly scaled
+ * to the thumbnail width. The height keeps the aspect ratio of the source. Images that cannot be read this
+ * way, or that are already no wider than the thumbnail, are handed to ImageUtils.scaleImage.
+ *
+ * Running this class compares it with ImageUtils.scaleImage:
+ * <xmp>
+ * java com.zitego.remoteCommandProcessor.process.Thumbnailer <width> <iterations> <image> [<image> ...]
+ * </xmp>
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+class Thumbnailer
+{
+    private Thumbnailer() { }
+
+    public static void main(String[] a) throws Exception
+    {
+        if (a.length < 3)
+        {
+            System.out.println("Usage: Thumbnailer <width> <iterations> <image> [<image> ...]");
+            return;
+        }
+        int width = Integer.parseInt(a[0]);
+        int iterations = Integer.parseInt(a[1]);
+        File out = File.createTempFile("thumbnail", ".tmp");
+        out.deleteOnExit();
+        for (int i=2; i<a.length; i++)
+        {
+            File image = new File(a[i]);
+            String ext = a[i].substring( a[i].lastIndexOf(".") );
+            File thumb = new File( out.getAbsolutePath() + ext );
+            thumb.deleteOnExit();
+            for (int pass=0; pass<2; pass++)
+            {
+                boolean subsample = (pass == 0);
+                //Warm up
+                if (subsample) scale(image, thumb, width);
+                else ImageUtils.scaleImage(image, thumb, width);
+                System.gc();
+                resetPeakHeap();
+                long start = System.nanoTime();
+                for (int j=0; j<iterations; j++)
+                {
+                    if (subsample) scale(image, thumb, width);
+                    else ImageUtils.scaleImage(image, thumb, width);
+                }
+                long time = (System.nanoTime() - start) / iterations / 1000000;
+                System.out.println
+                (
+                    image.getName() + " " + (subsample ? "Thumbnailer.scale     " : "ImageUtils.scaleImage ") +
+                    time + "ms/image, peak heap " + (getPeakHeap() / (1024 * 1024)) + "MB"
+                );
+            }
+        }
+    }
+
+    /**
+     * Scales the image to a thumbnail of the given width and writes it to the thumbnail file. The format of
+     * the thumbnail is taken from its extension.
+     *
+     * @param image The image.
+     * @param thumbnail The thumbnail file.
+     * @param width The thumbnail width.
+     * @throws IOException if the thumbnail cannot be created.
+     */
+    static void scale(File image, File thumbnail, int width) throws IOException
+    {
+        String name = thumbnail.getName();
+        String format = name.substring( name.lastIndexOf(".")+1 ).toLowerCase();
+        boolean written = false;
+        try
+        {
+            BufferedImage scaled = read( image, width, !"jpg".equals(format) && !"jpeg".equals(format) );
+            if (scaled != null) written = ImageIO.write(scaled, format, thumbnail);
+        }
+        catch (Exception e)
+        {
+            written = false;
+        }
+        if (!written) ImageUtils.scaleImage(image, thumbnail, width);
+    }
+
+    /**
+     * Reads the image subsampled and scaled to the given width. Returns null if the image cannot be read
+     * with an image reader or is already no wider than the width.
+     *
+     * @param image The image.
+     * @param width The width.
+     * @param alpha Whether the scaled image can have transparency.
+     * @return BufferedImage
+     * @throws IOException if the image cannot be read.
+     */
+    private static BufferedImage read(File image, int width, boolean alpha) throws IOException
+    {
+        ImageInputStream in = ImageIO.createImageInputStream(image);
+        if (in == null) return null;
+        ImageReader reader = null;
+        try
+        {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if ( !readers.hasNext() ) return null;
+            reader = readers.next();
+            reader.setInput(in, true, true);
+            int srcWidth = reader.getWidth(0);
+            int srcHeight = reader.getHeight(0);
+            if (srcWidth <= width) return null;
+
+            //Decode at least twice the thumbnail width so the final scale still has pixels to smooth with
+            int step = Math.max( 1, srcWidth / (width * 2) );
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(step, step, 0, 0);
+            BufferedImage decoded = reader.read(0, param);
+
+            int height = Math.max( 1, (int)Math.round((double)srcHeight * width / srcWidth) );
+            int type = (alpha && decoded.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            BufferedImage ret = new BufferedImage(width, height, type);
+            Graphics2D g = ret.createGraphics();
+            try
+            {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.drawImage(decoded, 0, 0, width, height, null);
+            }
+            finally
+            {
+                g.dispose();
+            }
+            return ret;
+        }
+        finally
+        {
+            if (reader != null) reader.dispose();
+            in.close();
+        }
+    }
+
+    private static void resetPeakHeap()
+    {
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+        for (int i=0; i<pools.size(); i++)
+        {
+            if (pools.get(i).getType() == MemoryType.HEAP) pools.get(i).resetPeakUsage();
+        }
+    }
+
+    private static long getPeakHeap()
+    {
+        long ret = 0;
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+        for (int i=0; i<pools.size(); i++)
+        {
+            if (pools.get(i).getType() == MemoryType.HEAP) ret += pools.get(i).getPeakUsage().getUsed();
+        }
+        return ret;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,509 @@
+package com.zitego.remoteCommandProcessor.process;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A shared apache config file made up of website blocks that begin with a "# BEGIN website:id config" line
+ * and end with a "# END website:id config" line. There is one instance per file and it keeps an index of
+ * where each website's block is in the file. The index is only read again when the file's last modified
+ * time or length changes.<br>
+ * <br>
+ * Edits replace a website's block with a new one at the end of the file. The new file is written to a
+ * temporary file by copying the unchanged byte ranges of the old file with FileChannel.transferTo and is
+ * then renamed over the config file, so the file is never left half written. Edits are queued and the
+ * first editor to find no one writing becomes the leader and applies everything queued in a single
+ * rewrite, while the others wait for their edit to be written.<br>
+ * <br>
+ * An edit can also remove a website's block without adding one or add an Include line if the file does
+ * not already have it.
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+class VirtualHostConfigFile
+{
+    private static final String BEGIN = "# BEGIN website:";
+    private static final String END = "# END website:";
+    private static final String SUFFIX = " config";
+    private static Hashtable<String, VirtualHostConfigFile> _files = new Hashtable<String, VirtualHostConfigFile>();
+    private File _file;
+    private long _lastModified = -1;
+    private long _length = -1;
+    private boolean _endsWithNewLine = true;
+    private ArrayList<Block> _blocks = new ArrayList<Block>();
+    private Hashtable<String, Block> _index = new Hashtable<String, Block>();
+    private HashSet<String> _includes = new HashSet<String>();
+    private Object _fileLock = new Object();
+    private LinkedList<Edit> _queue = new LinkedList<Edit>();
+    private boolean _leading = false;
+
+    /**
+     * Returns the instance for the given config file.
+     *
+     * @param file The config file.
+     * @return VirtualHostConfigFile
+     * @throws IOException if the path of the file cannot be resolved.
+     */
+    static synchronized VirtualHostConfigFile getInstance(File file) throws IOException
+    {
+        String path = file.getCanonicalPath();
+        VirtualHostConfigFile ret = _files.get(path);
+        if (ret == null)
+        {
+            ret = new VirtualHostConfigFile( new File(path) );
+            _files.put(path, ret);
+        }
+        return ret;
+    }
+
+    private VirtualHostConfigFile(File file)
+    {
+        _file = file;
+    }
+
+    /**
+     * Queues the given block to replace the website's block. If the block is null, the website's block is
+     * only removed.
+     *
+     * @param websiteId The website id.
+     * @param block The block including its begin and end lines.
+     * @return Edit
+     */
+    synchronized Edit submit(String websiteId, String block)
+    {
+        Edit ret = new Edit(websiteId, block, null);
+        _queue.add(ret);
+        return ret;
+    }
+
+    /**
+     * Queues the given Include line to be added to the end of the file if the file does not have it.
+     *
+     * @param include The Include line.
+     * @return Edit
+     */
+    synchronized Edit submitInclude(String include)
+    {
+        Edit ret = new Edit(null, null, include.trim());
+        _queue.add(ret);
+        return ret;
+    }
+
+    /**
+     * Returns whether the file has a block for the given website.
+     *
+     * @param websiteId The website id.
+     * @return boolean
+     * @throws IOException if the file cannot be read.
+     */
+    boolean hasBlock(String websiteId) throws IOException
+    {
+        synchronized (_fileLock)
+        {
+            refresh();
+            return _index.containsKey(websiteId);
+        }
+    }
+
+    /**
+     * Returns whether the file has the given Include line outside of any website block.
+     *
+     * @param include The Include line.
+     * @return boolean
+     * @throws IOException if the file cannot be read.
+     */
+    boolean hasInclude(String include) throws IOException
+    {
+        synchronized (_fileLock)
+        {
+            refresh();
+            return _includes.contains( include.trim() );
+        }
+    }
+
+    /**
+     * Returns true if the caller is now the leader and must write the queued edits for as long as hasEdits
+     * returns true, or false if there already is a leader that will write them.
+     *
+     * @return boolean
+     */
+    synchronized boolean lead()
+    {
+        if (_leading) return false;
+        _leading = true;
+        return true;
+    }
+
+    /**
+     * Returns whether there are queued edits for the leader to write. If there are none, the caller is no
+     * longer the leader.
+     *
+     * @return boolean
+     */
+    synchronized boolean hasEdits()
+    {
+        if (_queue.size() == 0) _leading = false;
+        return _leading;
+    }
+
+    /**
+     * Returns and clears the queued edits.
+     *
+     * @return List
+     */
+    synchronized List<Edit> takeEdits()
+    {
+        List<Edit> ret = new ArrayList<Edit>(_queue);
+        _queue.clear();
+        return ret;
+    }
+
+    /**
+     * Writes the given edits to the config file in one rewrite. An edit of a website whose block in the file
+     * has no end is failed and left out. The edits are not completed. The file is not written if none of
+     * the edits change it.
+     *
+     * @param edits The edits.
+     * @return int The number of edits that changed the file.
+     * @throws IOException if the file cannot be written.
+     */
+    int write(List<Edit> edits) throws IOException
+    {
+        synchronized (_fileLock)
+        {
+            return writeEdits(edits);
+        }
+    }
+
+    private int writeEdits(List<Edit> edits) throws IOException
+    {
+        refresh();
+
+        //The last edit of a website wins
+        LinkedHashMap<String, Edit> latest = new LinkedHashMap<String, Edit>();
+        for (int i=0; i<edits.size(); i++)
+        {
+            Edit edit = edits.get(i);
+            if (edit.include != null)
+            {
+                if ( !_includes.contains(edit.include) ) latest.put("Include:"+edit.include, edit);
+                continue;
+            }
+            Block block = _index.get(edit.websiteId);
+            if (edit.block == null && block == null) continue;
+            if (block != null && block.end == -1)
+            {
+                edit.error = new IOException("Config file error. BEGIN tag found for website: "+edit.websiteId+", but no END tag found");
+                continue;
+            }
+            latest.remove(edit.websiteId);
+            latest.put(edit.websiteId, edit);
+        }
+        if (latest.size() == 0) return 0;
+
+        ArrayList<Block> removed = new ArrayList<Block>();
+        for (Edit edit : latest.values())
+        {
+            Block block = (edit.websiteId == null ? null : _index.get(edit.websiteId));
+            if (block != null) removed.add(block);
+        }
+        Collections.sort
+        (
+            removed, new Comparator<Block>()
+            {
+                public int compare(Block b1, Block b2)
+                {
+                    return (b1.start < b2.start ? -1 : (b1.start == b2.start ? 0 : 1));
+                }
+            }
+        );
+
+        File tmp = new File( _file.getPath() + ".tmp" );
+        ArrayList<Block> blocks = new ArrayList<Block>();
+        FileInputStream in = new FileInputStream(_file);
+        FileOutputStream out = new FileOutputStream(tmp);
+        long length = 0;
+        boolean endsWithNewLine = true;
+        try
+        {
+            FileChannel src = in.getChannel();
+            FileChannel dest = out.getChannel();
+            long pos = 0;
+            for (int i=0; i<removed.size(); i++)
+            {
+                Block block = removed.get(i);
+                transfer(src, pos, block.start - pos, dest);
+                pos = block.end;
+            }
+            transfer(src, pos, _length - pos, dest);
+            length = dest.position();
+
+            //Shift the blocks that were kept by what was removed before them
+            long shift = 0;
+            int next = 0;
+            for (int i=0; i<_blocks.size(); i++)
+            {
+                Block block = _blocks.get(i);
+                if ( next < removed.size() && removed.get(next) == block )
+                {
+                    shift += block.end - block.start;
+                    next++;
+                    continue;
+                }
+                blocks.add( new Block(block.websiteId, block.start-shift, (block.end == -1 ? -1 : block.end-shift)) );
+            }
+
+            //Only the tail of the file can be missing a new line, or it ends where a removed block began
+            endsWithNewLine = ( length == 0 || pos == _length || _endsWithNewLine );
+            String newLine = System.getProperty("line.separator");
+            for (Edit edit : latest.values())
+            {
+                if (edit.include == null && edit.block == null) continue;
+                if (!endsWithNewLine) length += write( dest, newLine.getBytes() );
+                endsWithNewLine = true;
+                if (edit.include != null)
+                {
+                    length += write( dest, (edit.include+newLine).getBytes() );
+                }
+                else if (edit.block != null)
+                {
+                    long start = length;
+                    length += write( dest, edit.block.getBytes() );
+                    blocks.add( new Block(edit.websiteId, start, length) );
+                }
+            }
+            dest.force(true);
+        }
+        finally
+        {
+            in.close();
+            out.close();
+        }
+        if ( !tmp.renameTo(_file) )
+        {
+            _file.delete();
+            if ( !tmp.renameTo(_file) ) throw new IOException("Could not rename "+tmp+" to "+_file);
+        }
+
+        _blocks = blocks;
+        _index = new Hashtable<String, Block>();
+        for (int i=0; i<blocks.size(); i++)
+        {
+            Block block = blocks.get(i);
+            if ( !_index.containsKey(block.websiteId) ) _index.put(block.websiteId, block);
+        }
+        for (Edit edit : latest.values())
+        {
+            if (edit.include != null) _includes.add(edit.include);
+        }
+        _endsWithNewLine = endsWithNewLine;
+        _lastModified = _file.lastModified();
+        _length = _file.length();
+        return latest.size();
+    }
+
+    /**
+     * Reads the index again if the file has changed since it was last read.
+     *
+     * @throws IOException if the file does not exist or cannot be read.
+     */
+    private void refresh() throws IOException
+    {
+        if ( !_file.exists() ) throw new IOException("apache config file: "+_file+" does not exist");
+        if ( _file.lastModified() != _lastModified || _file.length() != _length ) readIndex();
+    }
+
+    /**
+     * Completes the given edits so the editors waiting on them return. Edits that already failed keep
+     * their own error.
+     *
+     * @param edits The edits.
+     * @param error The error writing them or null if they were written.
+     */
+    void complete(List<Edit> edits, Exception error)
+    {
+        for (int i=0; i<edits.size(); i++)
+        {
+            Edit edit = edits.get(i);
+            if (edit.error == null) edit.error = error;
+            edit.done.countDown();
+        }
+    }
+
+    /**
+     * Reads where each website block starts and ends. A block starts at the blank lines before its begin
+     * line and ends after its end line. A block that is not ended before the next website's block or the
+     * end of the file is given an end of -1.
+     *
+     * @throws IOException if the file cannot be read.
+     */
+    private void readIndex() throws IOException
+    {
+        ArrayList<Block> blocks = new ArrayList<Block>();
+        Hashtable<String, Block> index = new Hashtable<String, Block>();
+        HashSet<String> includes = new HashSet<String>();
+        long lastModified = _file.lastModified();
+        InputStream in = new BufferedInputStream( new FileInputStream(_file) );
+        StringBuffer line = new StringBuffer();
+        long pos = 0;
+        long lineStart = 0;
+        long blankStart = -1;
+        Block open = null;
+        int last = -1;
+        try
+        {
+            int c = 0;
+            while (c != -1)
+            {
+                c = in.read();
+                if (c != -1)
+                {
+                    pos++;
+                    last = c;
+                    if (c != '\n')
+                    {
+                        if (c != '\r') line.append( (char)c );
+                        continue;
+                    }
+                }
+                else if (pos == lineStart)
+                {
+                    break;
+                }
+
+                //A complete line from lineStart to pos
+                String id = null;
+                if ( line.length() == 0 )
+                {
+                    if (open == null && blankStart == -1) blankStart = lineStart;
+                }
+                else if ( (id=getWebsiteId(line, BEGIN)) != null )
+                {
+                    //A block that was never ended stops at the next one
+                    if (open != null) open.end = -1;
+                    open = new Block(id, (blankStart == -1 ? lineStart : blankStart), -1);
+                    blocks.add(open);
+                    if ( !index.containsKey(id) ) index.put(id, open);
+                    blankStart = -1;
+                }
+                else if ( open != null && open.websiteId.equals(getWebsiteId(line, END)) )
+                {
+                    open.end = pos;
+                    open = null;
+                }
+                else if (open == null)
+                {
+                    blankStart = -1;
+                    String directive = line.toString().trim();
+                    if ( directive.startsWith("Include") ) includes.add(directive);
+                }
+                line.setLength(0);
+                lineStart = pos;
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        _blocks = blocks;
+        _index = index;
+        _includes = includes;
+        _endsWithNewLine = (last == -1 || last == '\n');
+        _lastModified = lastModified;
+        _length = pos;
+    }
+
+    private static String getWebsiteId(StringBuffer line, String prefix)
+    {
+        if (line.length() <= prefix.length() || line.indexOf(prefix) != 0) return null;
+        int index = line.indexOf(SUFFIX, prefix.length());
+        if (index == -1) return null;
+        return line.substring(prefix.length(), index);
+    }
+
+    private static void transfer(FileChannel src, long pos, long count, FileChannel dest) throws IOException
+    {
+        while (count > 0)
+        {
+            long sent = src.transferTo(pos, count, dest);
+            if (sent <= 0) throw new IOException("Could not copy "+count+" bytes at "+pos);
+            pos += sent;
+            count -= sent;
+        }
+    }
+
+    private static int write(FileChannel dest, byte[] bytes) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while ( buf.hasRemaining() ) dest.write(buf);
+        return bytes.length;
+    }
+
+    /**
+     * A website block in the file. The end is exclusive.
+     */
+    private static class Block
+    {
+        private String websiteId;
+        private long start;
+        private long end;
+
+        private Block(String websiteId, long start, long end)
+        {
+            this.websiteId = websiteId;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * A queued edit of a website's block or an Include line.
+     */
+    static class Edit
+    {
+        private String websiteId;
+        private String block;
+        private String include;
+        private volatile Exception error;
+        private CountDownLatch done = new CountDownLatch(1);
+
+        private Edit(String websiteId, String block, String include)
+        {
+            this.websiteId = websiteId;
+            this.block = block;
+            this.include = include;
+        }
+
+        /**
+         * Waits for the edit to be written.
+         *
+         * @throws IOException if the edit could not be written.
+         * @throws InterruptedException if interrupted while waiting.
+         */
+        void waitFor() throws IOException, InterruptedException
+        {
+            done.await();
+            if (error == null) return;
+            if (error instanceof IOException) throw (IOException)error;
+            IOException ioe = new IOException( error.getMessage() );
+            ioe.initCause(error);
+            throw ioe;
+        }
+    }
+}
\ No newline at end of file
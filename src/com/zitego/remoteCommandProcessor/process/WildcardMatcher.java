@@ -0,0 +1,71 @@
+package com.zitego.remoteCommandProcessor.process;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A filename filter that matches any of several wildcard patterns. The patterns are compiled into a single
+ * regular expression so a directory can be filtered in one pass no matter how many patterns it has. A *
+ * matches any number of characters and a ? matches exactly one. Everything else is matched literally.
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+class WildcardMatcher implements FilenameFilter
+{
+    private Pattern _pattern;
+
+    /**
+     * Creates a new matcher for the given patterns.
+     *
+     * @param patterns The wildcard patterns.
+     * @param caseSensitive Whether to match case.
+     */
+    WildcardMatcher(List<String> patterns, boolean caseSensitive)
+    {
+        StringBuffer regex = new StringBuffer();
+        int size = patterns.size();
+        for (int i=0; i<size; i++)
+        {
+            if (i > 0) regex.append("|");
+            regex.append("(?:");
+            appendPattern( regex, patterns.get(i) );
+            regex.append(")");
+        }
+        _pattern = Pattern.compile( regex.toString(), (caseSensitive ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE) );
+    }
+
+    private void appendPattern(StringBuffer regex, String pattern)
+    {
+        int start = 0;
+        for (int i=0; i<pattern.length(); i++)
+        {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?')
+            {
+                if (i > start) regex.append( Pattern.quote(pattern.substring(start, i)) );
+                regex.append(c == '*' ? ".*" : ".");
+                start = i + 1;
+            }
+        }
+        if ( start < pattern.length() ) regex.append( Pattern.quote(pattern.substring(start)) );
+    }
+
+    /**
+     * Returns whether the name matches any of the patterns.
+     *
+     * @param name The file name.
+     * @return boolean
+     */
+    boolean matches(String name)
+    {
+        return _pattern.matcher(name).matches();
+    }
+
+    public boolean accept(File dir, String name)
+    {
+        return matches(name);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,251 @@
+package com.zitego.remoteCommandProcessor.request;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * This class is a single persistent HTTP/1.1 connection to a remote command server. It posts
+ * form data and reads back the response body, leaving the socket open for the next request
+ * unless the server asks for it to be closed. Connections are handed out and taken back by an
+ * HttpConnectionPool and are not meant to be shared between threads.
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+class HttpConnection
+{
+    private String _host;
+    private int _port;
+    private Socket _socket;
+    private InputStream _in;
+    private OutputStream _out;
+    private boolean _reusable = true;
+    private long _lastUsed;
+    private int _requestCount = 0;
+
+    /**
+     * Opens a new connection to the given host and port.
+     *
+     * @param host The host.
+     * @param port The port.
+     * @param timeout The connect and read timeout in milliseconds. Zero means no timeout.
+     * @throws IOException if the connection could not be opened.
+     */
+    HttpConnection(String host, int port, int timeout) throws IOException
+    {
+        _host = host;
+        _port = port;
+        _socket = new Socket();
+        _socket.setTcpNoDelay(true);
+        _socket.setKeepAlive(true);
+        _socket.connect(new InetSocketAddress(host, port), timeout);
+        _socket.setSoTimeout(timeout);
+        _in = new BufferedInputStream( _socket.getInputStream() );
+        _out = new BufferedOutputStream( _socket.getOutputStream() );
+        _lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Posts the url encoded form body to the given path and returns the response body. If the
+     * server does not return a 200 status, an IOException is thrown.
+     *
+     * @param path The path and query of the request.
+     * @param body The url encoded form body.
+     * @param timeout The read timeout in milliseconds. Zero means no timeout.
+     * @return String
+     * @throws IOException if an error occurs.
+     */
+    String post(String path, String body, int timeout) throws IOException
+    {
+        _requestCount++;
+        _socket.setSoTimeout(timeout);
+        byte[] data = body.getBytes("UTF-8");
+        StringBuffer head = new StringBuffer()
+            .append("POST ").append(path).append(" HTTP/1.1\r\n")
+            .append("Host: ").append(_host).append(_port != 80 ? ":" + _port : "").append("\r\n")
+            .append("Connection: keep-alive\r\n")
+            .append("Content-Type: application/x-www-form-urlencoded; charset=UTF-8\r\n")
+            .append("Content-Length: ").append(data.length).append("\r\n")
+            .append("\r\n");
+        try
+        {
+            _out.write( head.toString().getBytes("ISO-8859-1") );
+            _out.write(data);
+            _out.flush();
+            return readResponse();
+        }
+        catch (IOException ioe)
+        {
+            _reusable = false;
+            throw ioe;
+        }
+        finally
+        {
+            _lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    private String readResponse() throws IOException
+    {
+        String status = readLine();
+        if (status == null) throw new StaleConnectionException("connection closed by "+_host+":"+_port);
+        int index = status.indexOf(" ");
+        if ( index == -1 || !status.startsWith("HTTP/") ) throw new IOException("Invalid status line from "+_host+": "+status);
+        int code = 0;
+        try
+        {
+            code = Integer.parseInt( status.substring(index+1, Math.min(index+4, status.length())) );
+        }
+        catch (NumberFormatException nfe)
+        {
+            throw new IOException("Invalid status line from "+_host+": "+status);
+        }
+        if ( status.startsWith("HTTP/1.0") ) _reusable = false;
+
+        long length = -1;
+        boolean chunked = false;
+        String charset = "UTF-8";
+        String line = null;
+        while ( (line=readLine()) != null && line.length() > 0 )
+        {
+            index = line.indexOf(":");
+            if (index == -1) continue;
+            String name = line.substring(0, index).trim();
+            String value = line.substring(index+1).trim();
+            if ( name.equalsIgnoreCase("Content-Length") ) length = Long.parseLong(value);
+            else if ( name.equalsIgnoreCase("Transfer-Encoding") && value.equalsIgnoreCase("chunked") ) chunked = true;
+            else if ( name.equalsIgnoreCase("Connection") ) _reusable = !value.equalsIgnoreCase("close");
+            else if ( name.equalsIgnoreCase("Content-Type") )
+            {
+                int cs = value.toLowerCase().indexOf("charset=");
+                if (cs > -1) charset = value.substring(cs+8).replaceAll("[\";].*$", "").trim();
+            }
+        }
+        if (line == null) throw new EOFException("connection closed while reading headers from "+_host);
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        if (chunked)
+        {
+            long size = 0;
+            while ( (size=readChunkSize()) > 0 )
+            {
+                copy(content, size);
+                readLine();
+            }
+            //Trailers
+            while ( (line=readLine()) != null && line.length() > 0 ) { }
+        }
+        else if (length > -1)
+        {
+            copy(content, length);
+        }
+        else
+        {
+            //No length, so the server will close the connection when done
+            _reusable = false;
+            byte[] buf = new byte[8192];
+            int read = 0;
+            while ( (read=_in.read(buf)) != -1 ) content.write(buf, 0, read);
+        }
+
+        String ret = content.toString(charset);
+        if (code != 200) throw new IOException("Server at "+_host+" returned HTTP status "+code);
+        return ret;
+    }
+
+    private long readChunkSize() throws IOException
+    {
+        String line = readLine();
+        if (line == null) throw new EOFException("connection closed while reading chunk from "+_host);
+        int index = line.indexOf(";");
+        if (index > -1) line = line.substring(0, index);
+        return Long.parseLong(line.trim(), 16);
+    }
+
+    private void copy(OutputStream out, long length) throws IOException
+    {
+        byte[] buf = new byte[8192];
+        while (length > 0)
+        {
+            int read = _in.read( buf, 0, (int)Math.min(buf.length, length) );
+            if (read == -1) throw new EOFException("connection closed while reading response from "+_host);
+            out.write(buf, 0, read);
+            length -= read;
+        }
+    }
+
+    private String readLine() throws IOException
+    {
+        StringBuffer line = new StringBuffer();
+        int c = -1;
+        while ( (c=_in.read()) != -1 )
+        {
+            if (c == '\n') break;
+            if (c != '\r') line.append( (char)c );
+        }
+        if (c == -1 && line.length() == 0) return null;
+        return line.toString();
+    }
+
+    /**
+     * Returns whether this connection can be handed out again.
+     *
+     * @return boolean
+     */
+    boolean isReusable()
+    {
+        return _reusable && !_socket.isClosed();
+    }
+
+    /**
+     * Returns the time this connection was last used.
+     *
+     * @return long
+     */
+    long getLastUsed()
+    {
+        return _lastUsed;
+    }
+
+    /**
+     * Returns the number of requests sent over this connection.
+     *
+     * @return int
+     */
+    int getRequestCount()
+    {
+        return _requestCount;
+    }
+
+    /**
+     * Closes the underlying socket.
+     */
+    void close()
+    {
+        _reusable = false;
+        try
+        {
+            _socket.close();
+        }
+        catch (IOException ioe) { }
+    }
+
+    /**
+     * Thrown when a pooled connection turns out to have been closed by the server before any
+     * of the response was read. The request is safe to retry on a new connection.
+     */
+    static class StaleConnectionException extends IOException
+    {
+        StaleConnectionException(String msg)
+        {
+            super(msg);
+        }
+    }
+}
\ No newline at end of file
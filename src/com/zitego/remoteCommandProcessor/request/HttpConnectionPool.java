@@ -0,0 +1,415 @@
+package com.zitego.remoteCommandProcessor.request;
+
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * This class keeps a pool of persistent http connections for each remote command server so that
+ * successive requests to the same node reuse an open socket rather than paying for a new connection
+ * each time. The number of connections to any one node is capped and connections that have sat idle
+ * longer than the idle timeout are closed, for every node, when the pool is next used. A request waiting for a
+ * connection to a node that is at its limit blocks until one is returned.
+ *
+ * The default pool is shared by all RemoteCommandProcessorRequests and can be tuned with the following
+ * system properties:
+ * <ul>
+ *  <li>rcp.http.max_connections_per_host - The maximum connections per node. The default is 8.
+ *  <li>rcp.http.idle_timeout - The idle time in milliseconds before a connection is evicted. The default is 30000.
+ *  <li>rcp.http.timeout - The connect and read timeout in milliseconds. The default is 0 (none).
+ * </ul>
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+public class HttpConnectionPool
+{
+    private static HttpConnectionPool _default = new HttpConnectionPool
+    (
+        Integer.getInteger("rcp.http.max_connections_per_host", 8).intValue(),
+        Long.getLong("rcp.http.idle_timeout", 30000L).longValue(),
+        Integer.getInteger("rcp.http.timeout", 0).intValue()
+    );
+    private Hashtable<String, HostPool> _hosts = new Hashtable<String, HostPool>();
+    private int _maxConnectionsPerHost;
+    private long _idleTimeout;
+    private int _timeout;
+    private long _hits = 0;
+    private long _misses = 0;
+    private long _evictions = 0;
+    private long _lastEviction = System.currentTimeMillis();
+
+    /**
+     * Returns the default pool that is shared by all requests.
+     *
+     * @return HttpConnectionPool
+     */
+    public static HttpConnectionPool getDefault()
+    {
+        return _default;
+    }
+
+    /**
+     * Sets the default pool that is shared by all requests. Connections held by the old pool
+     * are closed.
+     *
+     * @param pool The pool.
+     * @throws IllegalArgumentException if the pool is null.
+     */
+    public static void setDefault(HttpConnectionPool pool) throws IllegalArgumentException
+    {
+        if (pool == null) throw new IllegalArgumentException("pool cannot be null");
+        HttpConnectionPool old = _default;
+        _default = pool;
+        if (old != pool) old.close();
+    }
+
+    /**
+     * Creates a new connection pool.
+     *
+     * @param maxConnectionsPerHost The maximum number of connections to any one host.
+     * @param idleTimeout The time in milliseconds an unused connection is kept open.
+     * @param timeout The default connect and read timeout in milliseconds. Zero means no timeout.
+     * @throws IllegalArgumentException if the max connections is less than 1.
+     */
+    public HttpConnectionPool(int maxConnectionsPerHost, long idleTimeout, int timeout) throws IllegalArgumentException
+    {
+        if (maxConnectionsPerHost < 1) throw new IllegalArgumentException("max connections per host must be at least 1");
+        _maxConnectionsPerHost = maxConnectionsPerHost;
+        _idleTimeout = idleTimeout;
+        _timeout = timeout;
+    }
+
+    /**
+     * Posts the url encoded form body to the given host and returns the response body. A pooled
+     * connection is used if one is available. If a pooled connection turns out to have been closed
+     * by the server before it sent any of a response, the request is retried once on a new connection.
+     * Any other error is not retried since the server may have already run the command.
+     *
+     * @param host The host.
+     * @param port The port.
+     * @param path The path and query of the request.
+     * @param body The url encoded form body.
+     * @param timeout The timeout in milliseconds or -1 to use the pool default.
+     * @return String
+     * @throws IOException if an error occurs.
+     */
+    public String post(String host, int port, String path, String body, int timeout) throws IOException
+    {
+        return post(host, port, path, body, timeout, null);
+    }
+
+    /**
+     * Posts the url encoded form body on behalf of the given request. The connection in use is
+     * registered with the request so that the request can be aborted from another thread.
+     *
+     * @param host The host.
+     * @param port The port.
+     * @param path The path and query of the request.
+     * @param body The url encoded form body.
+     * @param timeout The timeout in milliseconds or -1 to use the pool default.
+     * @param owner The request the post is for. Can be null.
+     * @return String
+     * @throws IOException if an error occurs.
+     */
+    String post(String host, int port, String path, String body, int timeout, RemoteCommandProcessorRequest owner) throws IOException
+    {
+        if (timeout < 0) timeout = _timeout;
+        if ( isEvictionDue() ) evictIdleConnections();
+        HostPool pool = getHostPool(host, port);
+        HttpConnection conn = pool.checkOut(timeout);
+        boolean reused = conn.getRequestCount() > 0;
+        try
+        {
+            String ret = send(conn, path, body, timeout, owner);
+            pool.checkIn(conn);
+            return ret;
+        }
+        catch (IOException ioe)
+        {
+            pool.checkIn(conn);
+            if (reused && ioe instanceof HttpConnection.StaleConnectionException)
+            {
+                conn = pool.open(timeout);
+                try
+                {
+                    return send(conn, path, body, timeout, owner);
+                }
+                finally
+                {
+                    pool.checkIn(conn);
+                }
+            }
+            throw ioe;
+        }
+    }
+
+    private String send(HttpConnection conn, String path, String body, int timeout, RemoteCommandProcessorRequest owner) throws IOException
+    {
+        if (owner == null) return conn.post(path, body, timeout);
+        if ( !owner.setConnection(conn) ) throw new IOException("request aborted");
+        try
+        {
+            return conn.post(path, body, timeout);
+        }
+        finally
+        {
+            owner.setConnection(null);
+        }
+    }
+
+    private HostPool getHostPool(String host, int port)
+    {
+        String key = host.toLowerCase() + ":" + port;
+        synchronized (_hosts)
+        {
+            HostPool ret = _hosts.get(key);
+            if (ret == null)
+            {
+                ret = new HostPool(host, port);
+                _hosts.put(key, ret);
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Returns whether it has been long enough since idle connections to all hosts were last checked.
+     * They are checked at most once per second, or per idle timeout if that is shorter.
+     *
+     * @return boolean
+     */
+    private synchronized boolean isEvictionDue()
+    {
+        long now = System.currentTimeMillis();
+        if ( now - _lastEviction < Math.min(1000L, _idleTimeout) ) return false;
+        _lastEviction = now;
+        return true;
+    }
+
+    /**
+     * Closes any connections to any host that have been idle longer than the idle timeout. This is
+     * done as requests are posted, so it only needs to be called to close idle connections while the
+     * pool is not being used.
+     */
+    public void evictIdleConnections()
+    {
+        synchronized (_hosts)
+        {
+            for (Enumeration<HostPool> e=_hosts.elements(); e.hasMoreElements();)
+            {
+                e.nextElement().evictIdle();
+            }
+        }
+    }
+
+    /**
+     * Closes all idle connections in the pool. Connections that are checked out are closed
+     * when they are returned.
+     */
+    public void close()
+    {
+        synchronized (_hosts)
+        {
+            for (Enumeration<HostPool> e=_hosts.elements(); e.hasMoreElements();)
+            {
+                e.nextElement().close();
+            }
+            _hosts.clear();
+        }
+    }
+
+    /**
+     * Returns the number of requests that were sent over an already open connection.
+     *
+     * @return long
+     */
+    public synchronized long getHits()
+    {
+        return _hits;
+    }
+
+    /**
+     * Returns the number of requests that needed a new connection to be opened.
+     *
+     * @return long
+     */
+    public synchronized long getMisses()
+    {
+        return _misses;
+    }
+
+    /**
+     * Returns the number of connections that were closed for being idle too long.
+     *
+     * @return long
+     */
+    public synchronized long getEvictions()
+    {
+        return _evictions;
+    }
+
+    /**
+     * Returns the maximum number of connections to any one host.
+     *
+     * @return int
+     */
+    public int getMaxConnectionsPerHost()
+    {
+        return _maxConnectionsPerHost;
+    }
+
+    /**
+     * Returns the idle timeout in milliseconds.
+     *
+     * @return long
+     */
+    public long getIdleTimeout()
+    {
+        return _idleTimeout;
+    }
+
+    /**
+     * Returns the default connect and read timeout in milliseconds.
+     *
+     * @return int
+     */
+    public int getTimeout()
+    {
+        return _timeout;
+    }
+
+    private synchronized void countHit()
+    {
+        _hits++;
+    }
+
+    private synchronized void countMiss()
+    {
+        _misses++;
+    }
+
+    private synchronized void countEviction()
+    {
+        _evictions++;
+    }
+
+    public String toString()
+    {
+        return "hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + ", hosts=" + _hosts.size();
+    }
+
+    /**
+     * The idle connections and checked out count for a single host.
+     */
+    private class HostPool
+    {
+        private String _host;
+        private int _port;
+        private LinkedList<HttpConnection> _idle = new LinkedList<HttpConnection>();
+        private int _active = 0;
+        private boolean _closed = false;
+
+        private HostPool(String host, int port)
+        {
+            _host = host;
+            _port = port;
+        }
+
+        private HttpConnection checkOut(int timeout) throws IOException
+        {
+            synchronized (this)
+            {
+                evictIdle();
+                while (_idle.size() == 0 && _active >= _maxConnectionsPerHost)
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch (InterruptedException ie)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted waiting for a connection to "+_host+":"+_port);
+                    }
+                }
+                _active++;
+                if (_idle.size() > 0)
+                {
+                    countHit();
+                    return _idle.removeFirst();
+                }
+            }
+            try
+            {
+                countMiss();
+                return new HttpConnection(_host, _port, timeout);
+            }
+            catch (IOException ioe)
+            {
+                release();
+                throw ioe;
+            }
+        }
+
+        private HttpConnection open(int timeout) throws IOException
+        {
+            synchronized (this)
+            {
+                _active++;
+            }
+            try
+            {
+                countMiss();
+                return new HttpConnection(_host, _port, timeout);
+            }
+            catch (IOException ioe)
+            {
+                release();
+                throw ioe;
+            }
+        }
+
+        private void checkIn(HttpConnection conn)
+        {
+            synchronized (this)
+            {
+                if ( !_closed && conn.isReusable() ) _idle.addFirst(conn);
+                else conn.close();
+            }
+            release();
+        }
+
+        private synchronized void release()
+        {
+            _active--;
+            notify();
+        }
+
+        private synchronized void evictIdle()
+        {
+            long now = System.currentTimeMillis();
+            for (Iterator<HttpConnection> i=_idle.iterator(); i.hasNext();)
+            {
+                HttpConnection conn = i.next();
+                if (now - conn.getLastUsed() >= _idleTimeout || !conn.isReusable())
+                {
+                    i.remove();
+                    conn.close();
+                    countEviction();
+                }
+            }
+        }
+
+        private synchronized void close()
+        {
+            _closed = true;
+            while (_idle.size() > 0)
+            {
+                _idle.removeFirst().close();
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -4,12 +4,12 @@ import com.zitego.remoteCommandProcessor.CommandProcessorException;
 import com.zitego.remoteCommandProcessor.CommandProcessorResult;
 import com.zitego.markup.xml.XmlTag;
 import com.zitego.markup.tag.TagAttribute;
-import com.zitego.format.UnsupportedFormatException;
 import com.zitego.format.FormatType;
 import com.zitego.http.HttpRequestData;
 import com.zitego.http.PostData;
 import com.zitego.http.UrlContentReader;
-import com.zitego.util.StringValidation;
+import java.net.URL;
+import java.net.URLEncoder;
 
 /**
  * This class handles sending the xml document via an http post request to the remote
@@ -32,14 +32,10 @@ public class HttpRemoteCommandProcessorRequest extends RemoteCommandProcessorReq
 
     public CommandProcessorResult execute() throws CommandProcessorException
     {
-        HttpRequestData request = new HttpRequestData( getIp() );
-        PostData data = new PostData();
-        data.addField( "processor", getXml() );
-        request.setPostData(data);
-        UrlContentReader reader = new UrlContentReader(request);
+        startExecution();
         try
         {
-            return createResult( reader.getContent(), getIp() );
+            return createResult( post("processor", getXml()), getIp() );
         }
         catch (Exception e)
         {
@@ -47,25 +43,45 @@ public class HttpRemoteCommandProcessorRequest extends RemoteCommandProcessorReq
         }
     }
 
+    /**
+     * Posts the given form field to the remote processing servlet and returns the response. Plain http
+     * urls are sent over a pooled keep-alive connection. Any other protocol is sent with a one time
+     * UrlContentReader.
+     *
+     * @param field The form field name.
+     * @param value The form field value.
+     * @return String
+     * @throws Exception if an error occurs.
+     */
+    protected String post(String field, String value) throws Exception
+    {
+        URL url = new URL( getIp() );
+        if ( "http".equalsIgnoreCase(url.getProtocol()) )
+        {
+            String path = url.getFile();
+            if ( "".equals(path) ) path = "/";
+            String body = field + "=" + URLEncoder.encode( (value != null ? value : ""), "UTF-8" );
+            int port = url.getPort();
+            if (port == -1) port = url.getDefaultPort();
+            return getConnectionPool().post( url.getHost(), port, path, body, getTimeout(), this );
+        }
+        else
+        {
+            HttpRequestData request = new HttpRequestData( getIp() );
+            PostData data = new PostData();
+            data.addField(field, value);
+            request.setPostData(data);
+            return new UrlContentReader(request).getContent();
+        }
+    }
+
     private static CommandProcessorResult createResult(String content, String ip) throws CommandProcessorException
     {
         try
         {
             XmlTag tag = new XmlTag();
             tag.parseText(new StringBuffer(content), FormatType.XML);
-            if ( !tag.getTagName().equalsIgnoreCase("processor-result") ) throw new UnsupportedFormatException("No processor-result parent tag found");
-            String className = tag.getTagAttribute("class");
-            if (className == null) throw new UnsupportedFormatException("No processor-result class attribute found");
-            CommandProcessorResult ret = (CommandProcessorResult)Class.forName(className).newInstance();
-            String type = tag.getChildValue("type");
-            if (type == null) throw new UnsupportedFormatException("No processor-result type tag found");
-            ret.setType( Integer.parseInt(type) );
-            String reason = tag.getChildValue("reason");
-            if ( StringValidation.isNotEmpty(reason) ) ret.setReason(reason);
-            String stackTrace = tag.getChildValue("stack-trace");
-            if ( StringValidation.isNotEmpty(stackTrace) ) ret.setStackTrace(stackTrace);
-            ret.deserialize(tag);
-            return ret;
+            return CommandProcessorResult.createResult(tag);
         }
         catch (Exception e)
         {
@@ -81,14 +97,10 @@ public class HttpRemoteCommandProcessorRequest extends RemoteCommandProcessorReq
      */
     public CommandProcessorResult test() throws CommandProcessorException
     {
-        HttpRequestData request = new HttpRequestData( getIp() );
-        PostData data = new PostData();
-        data.addField("test", "1");
-        request.setPostData(data);
-        UrlContentReader reader = new UrlContentReader(request);
+        startExecution();
         try
         {
-            return createResult( reader.getContent(), getIp() );
+            return createResult( post("test", "1"), getIp() );
         }
         catch (Exception e)
         {
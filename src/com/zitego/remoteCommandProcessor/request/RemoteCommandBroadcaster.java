@@ -0,0 +1,235 @@
+package com.zitego.remoteCommandProcessor.request;
+
+import com.zitego.remoteCommandProcessor.CommandProcessorDocument;
+import com.zitego.remoteCommandProcessor.CommandProcessorException;
+import com.zitego.remoteCommandProcessor.CommandProcessorResult;
+import com.zitego.format.FormatType;
+import com.zitego.format.UnsupportedFormatException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+
+/**
+ * This class sends the same command processor document to many remote command servers at once. The
+ * document is serialized a single time and then dispatched in parallel on the shared request executor
+ * with at most the given number of requests outstanding. The result is a map of each node url to the
+ * CommandProcessorResult (or error) from that node along with how long the node took to respond, so
+ * a rollout across the fleet takes about as long as the slowest node.
+ *
+ * Example:
+ * <xmp>
+ * WAVEServerControl control = new WAVEServerControl();
+ * control.setCommand(WAVEServerControl.RESTART);
+ * RemoteCommandBroadcaster broadcaster = new RemoteCommandBroadcaster( control.createDocument(), 20 );
+ * Map<String, RemoteCommandBroadcaster.NodeResult> results = broadcaster.broadcast(urls);
+ * </xmp>
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+public class RemoteCommandBroadcaster
+{
+    private String _xml;
+    private int _concurrency;
+    private int _timeout = -1;
+
+    /**
+     * Creates a new broadcaster for the given document.
+     *
+     * @param doc The document to send.
+     * @param concurrency The maximum number of nodes to send to at the same time.
+     * @throws UnsupportedFormatException if the document cannot be serialized.
+     * @throws IllegalArgumentException if the document is null or the concurrency is less than 1.
+     */
+    public RemoteCommandBroadcaster(CommandProcessorDocument doc, int concurrency) throws UnsupportedFormatException, IllegalArgumentException
+    {
+        this( (doc != null ? doc.format(FormatType.XML) : null), concurrency );
+    }
+
+    /**
+     * Creates a new broadcaster for an already serialized document.
+     *
+     * @param xml The document xml.
+     * @param concurrency The maximum number of nodes to send to at the same time.
+     * @throws IllegalArgumentException if the xml is null or the concurrency is less than 1.
+     */
+    public RemoteCommandBroadcaster(String xml, int concurrency) throws IllegalArgumentException
+    {
+        if (xml == null) throw new IllegalArgumentException("document cannot be null");
+        if (concurrency < 1) throw new IllegalArgumentException("concurrency must be at least 1");
+        _xml = xml;
+        _concurrency = concurrency;
+    }
+
+    /**
+     * Sets the connect and read timeout in milliseconds for each node. A negative value (the
+     * default) means the connection pool default is used.
+     *
+     * @param timeout The timeout.
+     */
+    public void setTimeout(int timeout)
+    {
+        _timeout = timeout;
+    }
+
+    /**
+     * Returns the connect and read timeout in milliseconds for each node.
+     *
+     * @return int
+     */
+    public int getTimeout()
+    {
+        return _timeout;
+    }
+
+    /**
+     * Sends the document to every node and waits for all of them to respond. The returned map is
+     * in the same order as the given list of urls. Duplicate urls are only sent to once.
+     *
+     * @param urls The remote processing servlet urls.
+     * @return Map<String, NodeResult>
+     * @throws InterruptedException if interrupted while waiting for the nodes.
+     */
+    public Map<String, NodeResult> broadcast(List<String> urls) throws InterruptedException
+    {
+        Map<String, NodeResult> ret = new LinkedHashMap<String, NodeResult>();
+        if (urls == null) return ret;
+        for (String url : urls)
+        {
+            if (url != null && !ret.containsKey(url)) ret.put( url, new NodeResult(url) );
+        }
+
+        final Semaphore permits = new Semaphore(_concurrency);
+        final CountDownLatch remaining = new CountDownLatch( ret.size() );
+        for (final NodeResult node : ret.values())
+        {
+            permits.acquire();
+            final RemoteCommandProcessorRequest request = createRequest(node._url);
+            request.setXml(_xml);
+            request.setTimeout(_timeout);
+            try
+            {
+                RemoteCommandProcessorRequest.getExecutor().execute
+                (
+                    new Runnable()
+                    {
+                        public void run()
+                        {
+                            long start = System.currentTimeMillis();
+                            try
+                            {
+                                node._result = request.execute();
+                            }
+                            catch (CommandProcessorException cpe)
+                            {
+                                node._error = cpe;
+                            }
+                            catch (RuntimeException re)
+                            {
+                                node._error = new CommandProcessorException("An error occurred processing the command: " + re.toString(), re);
+                            }
+                            finally
+                            {
+                                node._latency = System.currentTimeMillis() - start;
+                                permits.release();
+                                remaining.countDown();
+                            }
+                        }
+                    }
+                );
+            }
+            catch (RuntimeException re)
+            {
+                node._error = new CommandProcessorException("Could not dispatch command to: " + node._url, re);
+                permits.release();
+                remaining.countDown();
+            }
+        }
+        remaining.await();
+        return ret;
+    }
+
+    /**
+     * Creates the request used to send to the given node. Override to use another transport.
+     *
+     * @param url The node url.
+     * @return RemoteCommandProcessorRequest
+     */
+    protected RemoteCommandProcessorRequest createRequest(String url)
+    {
+        return new HttpRemoteCommandProcessorRequest(url);
+    }
+
+    /**
+     * The outcome of sending the document to a single node.
+     */
+    public static class NodeResult
+    {
+        private String _url;
+        private volatile CommandProcessorResult _result;
+        private volatile CommandProcessorException _error;
+        private volatile long _latency = -1;
+
+        private NodeResult(String url)
+        {
+            _url = url;
+        }
+
+        /**
+         * Returns the node url.
+         *
+         * @return String
+         */
+        public String getUrl()
+        {
+            return _url;
+        }
+
+        /**
+         * Returns the result from the node or null if the request failed.
+         *
+         * @return CommandProcessorResult
+         */
+        public CommandProcessorResult getResult()
+        {
+            return _result;
+        }
+
+        /**
+         * Returns the error if the request to the node failed.
+         *
+         * @return CommandProcessorException
+         */
+        public CommandProcessorException getError()
+        {
+            return _error;
+        }
+
+        /**
+         * Returns the time in milliseconds the node took to respond.
+         *
+         * @return long
+         */
+        public long getLatency()
+        {
+            return _latency;
+        }
+
+        /**
+         * Returns whether the node responded with a successful result.
+         *
+         * @return boolean
+         */
+        public boolean isSuccess()
+        {
+            return (_result != null && _result.getType() == CommandProcessorResult.SUCCESS);
+        }
+
+        public String toString()
+        {
+            return _url + " (" + _latency + "ms): " + (_error != null ? _error.getMessage() : String.valueOf(_result) );
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,86 @@
+package com.zitego.remoteCommandProcessor.request;
+
+import com.zitego.remoteCommandProcessor.CommandProcessorException;
+import com.zitego.remoteCommandProcessor.CommandProcessorResult;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * This class is the future returned by RemoteCommandProcessorRequest.executeAsync. Cancelling it
+ * or letting it time out aborts the underlying request so the executing thread is freed rather
+ * than left waiting on the remote server.
+ *
+ * @author John Glorioso
+ * @version $Id$
+ */
+class RemoteCommandFuture extends FutureTask<CommandProcessorResult>
+{
+    private RemoteCommandProcessorRequest _request;
+    private long _execution;
+    private ScheduledFuture _timeout;
+
+    /**
+     * Creates a new future that executes the given request as the given execution. Cancelling it or
+     * letting it time out only aborts that execution.
+     *
+     * @param request The request.
+     * @param execution The execution number reserved for it.
+     */
+    RemoteCommandFuture(final RemoteCommandProcessorRequest request, final long execution)
+    {
+        super
+        (
+            new Callable<CommandProcessorResult>()
+            {
+                public CommandProcessorResult call() throws CommandProcessorException
+                {
+                    return request.execute(execution);
+                }
+            }
+        );
+        _request = request;
+        _execution = execution;
+    }
+
+    /**
+     * Sets the scheduled timeout so it can be cancelled when the request finishes first.
+     *
+     * @param timeout The scheduled timeout.
+     */
+    synchronized void setTimeout(ScheduledFuture timeout)
+    {
+        _timeout = timeout;
+        if ( isDone() ) _timeout.cancel(false);
+    }
+
+    /**
+     * Returns the task to run when the request times out.
+     *
+     * @return Runnable
+     */
+    Runnable getTimeoutTask()
+    {
+        return new Runnable()
+        {
+            public void run()
+            {
+                if ( isDone() ) return;
+                setException( new CommandProcessorException("Request to " + _request.getIp() + " timed out") );
+                _request.abort(_execution);
+            }
+        };
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        boolean ret = super.cancel(mayInterruptIfRunning);
+        if (ret) _request.abort(_execution);
+        return ret;
+    }
+
+    protected synchronized void done()
+    {
+        if (_timeout != null) _timeout.cancel(false);
+    }
+}
\ No newline at end of file
@@ -2,20 +2,38 @@ package com.zitego.remoteCommandProcessor.request;
 
 import com.zitego.remoteCommandProcessor.CommandProcessorException;
 import com.zitego.remoteCommandProcessor.CommandProcessorResult;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class handles sending a remote command processor request to the remote server.
  * It has only two methods. Set xml and an abstract execute method which handles the
- * communication to the remote command server.
+ * communication to the remote command server. Requests can also be executed asynchronously
+ * on a shared, bounded executor with executeAsync. The number of threads in the default executor
+ * is set with the rcp.async.threads system property (the default is 64).
  *
  * @author John Glorioso
  * @version $Id: RemoteCommandProcessorRequest.java,v 1.1.1.1 2008/02/20 14:58:34 jglorioso Exp $
  */
 public abstract class RemoteCommandProcessorRequest
 {
+    private static ExecutorService _executor = createExecutor( Integer.getInteger("rcp.async.threads", 64).intValue() );
+    private static ScheduledExecutorService _timer = createTimer();
     private String _xml;
     private String _ip;
     private String _port;
+    private int _timeout = -1;
+    private HttpConnectionPool _pool;
+    private HttpConnection _connection;
+    private long _execution = 0;
+    private long _abortedExecution = 0;
+    private ThreadLocal<Long> _reserved = new ThreadLocal<Long>();
 
     /**
      * Creates a new RemoteCommandProcessorRequest with the ip and port
@@ -39,6 +57,172 @@ public abstract class RemoteCommandProcessorRequest
      */
     public abstract CommandProcessorResult execute() throws CommandProcessorException;
 
+    /**
+     * Submits the request to the shared executor and returns immediately. The returned future
+     * holds the CommandProcessorResult once the remote server responds. Cancelling the future
+     * aborts the request.
+     *
+     * @return Future<CommandProcessorResult>
+     */
+    public Future<CommandProcessorResult> executeAsync()
+    {
+        return executeAsync(0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Submits the request to the shared executor and returns immediately. If the request has not
+     * completed within the given timeout, it is aborted and the future fails with a
+     * CommandProcessorException. A timeout of zero or less means no timeout.
+     *
+     * @param timeout The timeout.
+     * @param unit The timeout unit.
+     * @return Future<CommandProcessorResult>
+     */
+    public Future<CommandProcessorResult> executeAsync(long timeout, TimeUnit unit)
+    {
+        RemoteCommandFuture ret = new RemoteCommandFuture( this, reserveExecution() );
+        if (timeout > 0) ret.setTimeout( _timer.schedule(ret.getTimeoutTask(), timeout, unit) );
+        getExecutor().execute(ret);
+        return ret;
+    }
+
+    /**
+     * Starts a new execution of the request and returns its number. executeAsync calls this when the request
+     * is submitted, so an abort that comes before the executor gets to it still applies to it.
+     *
+     * @return long
+     */
+    synchronized long reserveExecution()
+    {
+        _connection = null;
+        return ++_execution;
+    }
+
+    /**
+     * Executes the request as the given execution, which was reserved when it was submitted.
+     *
+     * @param execution The execution number.
+     * @return CommandProcessorResult
+     * @throws CommandProcessorException if an error occurs.
+     */
+    CommandProcessorResult execute(long execution) throws CommandProcessorException
+    {
+        _reserved.set( new Long(execution) );
+        try
+        {
+            return execute();
+        }
+        finally
+        {
+            _reserved.remove();
+        }
+    }
+
+    /**
+     * Starts an execution of the request. An abort only applies to the execution it happened during,
+     * so a previous abort does not affect this one. When the request was submitted with executeAsync,
+     * the execution was already started then and is kept. Implementations of execute call this before
+     * sending anything.
+     */
+    protected void startExecution()
+    {
+        Long reserved = _reserved.get();
+        _reserved.remove();
+        if (reserved == null) reserveExecution();
+    }
+
+    /**
+     * Aborts the current execution of the request if it is waiting on the remote server by closing its
+     * connection. The thread executing the request gets an error. Later executions are not affected.
+     */
+    public void abort()
+    {
+        long execution = 0;
+        synchronized (this)
+        {
+            execution = _execution;
+        }
+        abort(execution);
+    }
+
+    /**
+     * Aborts the given execution of the request if it is still the current one.
+     *
+     * @param execution The execution number.
+     */
+    void abort(long execution)
+    {
+        HttpConnection conn = null;
+        synchronized (this)
+        {
+            if (execution != _execution) return;
+            _abortedExecution = execution;
+            conn = _connection;
+            _connection = null;
+        }
+        if (conn != null) conn.close();
+    }
+
+    /**
+     * Registers the connection the request is currently using. Returns false if the current execution
+     * has been aborted.
+     *
+     * @param conn The connection or null when the request is done with it.
+     * @return boolean
+     */
+    synchronized boolean setConnection(HttpConnection conn)
+    {
+        if (_abortedExecution == _execution && conn != null) return false;
+        _connection = conn;
+        return true;
+    }
+
+    /**
+     * Sets the executor that asynchronous requests are run on. The old executor is not shut down.
+     *
+     * @param executor The executor.
+     * @throws IllegalArgumentException if the executor is null.
+     */
+    public static void setExecutor(ExecutorService executor) throws IllegalArgumentException
+    {
+        if (executor == null) throw new IllegalArgumentException("executor cannot be null");
+        _executor = executor;
+    }
+
+    /**
+     * Returns the executor that asynchronous requests are run on.
+     *
+     * @return ExecutorService
+     */
+    public static ExecutorService getExecutor()
+    {
+        return _executor;
+    }
+
+    /**
+     * Creates a bounded executor with the given number of daemon threads. Idle threads time out
+     * so the executor costs nothing when it is not in use.
+     *
+     * @param threads The number of threads.
+     * @return ExecutorService
+     */
+    public static ExecutorService createExecutor(int threads)
+    {
+        ThreadPoolExecutor ret = new ThreadPoolExecutor
+        (
+            threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("rcp-async-")
+        );
+        ret.allowCoreThreadTimeOut(true);
+        return ret;
+    }
+
+    private static ScheduledExecutorService createTimer()
+    {
+        ScheduledThreadPoolExecutor ret = new ScheduledThreadPoolExecutor( 1, new DaemonThreadFactory("rcp-timeout-") );
+        ret.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        return ret;
+    }
+
     /**
      * Sets the ip.
      *
@@ -79,6 +263,48 @@ public abstract class RemoteCommandProcessorRequest
         return _port;
     }
 
+    /**
+     * Sets the connect and read timeout in milliseconds. A negative value (the default) means
+     * the connection pool default is used.
+     *
+     * @param timeout The timeout.
+     */
+    public void setTimeout(int timeout)
+    {
+        _timeout = timeout;
+    }
+
+    /**
+     * Returns the connect and read timeout in milliseconds.
+     *
+     * @return int
+     */
+    public int getTimeout()
+    {
+        return _timeout;
+    }
+
+    /**
+     * Sets the connection pool to send this request through. If it is not set, the
+     * default pool is used.
+     *
+     * @param pool The connection pool.
+     */
+    public void setConnectionPool(HttpConnectionPool pool)
+    {
+        _pool = pool;
+    }
+
+    /**
+     * Returns the connection pool to send this request through.
+     *
+     * @return HttpConnectionPool
+     */
+    public HttpConnectionPool getConnectionPool()
+    {
+        return (_pool != null ? _pool : HttpConnectionPool.getDefault());
+    }
+
     /**
      * Sets the xml request.
      *
@@ -98,4 +324,25 @@ public abstract class RemoteCommandProcessorRequest
     {
         return _xml;
     }
+
+    /**
+     * Creates named daemon threads so that pending requests do not keep the jvm alive.
+     */
+    private static class DaemonThreadFactory implements ThreadFactory
+    {
+        private String _prefix;
+        private int _count = 0;
+
+        private DaemonThreadFactory(String prefix)
+        {
+            _prefix = prefix;
+        }
+
+        public synchronized Thread newThread(Runnable r)
+        {
+            Thread ret = new Thread(r, _prefix + (++_count) );
+            ret.setDaemon(true);
+            return ret;
+        }
+    }
 }
\ No newline at end of file